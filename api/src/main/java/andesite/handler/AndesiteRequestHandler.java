@@ -181,7 +181,8 @@ public interface AndesiteRequestHandler {
     CompletionStage<JsonObject> resolveTracks(@Nonnull String identifier);
     
     /**
-     * Returns the stats of the node.
+     * Returns the stats of the node. The stats are refreshed periodically, so they may be
+     * slightly outdated.
      *
      * @return The stats of the node.
      */
@@ -190,7 +191,8 @@ public interface AndesiteRequestHandler {
     JsonObject nodeStats();
     
     /**
-     * Returns lavalink compatible stats of the node.
+     * Returns lavalink compatible stats of the node. The stats are refreshed periodically, so
+     * they may be slightly outdated.
      *
      * @return Lavalink compatible stats of the node.
      */
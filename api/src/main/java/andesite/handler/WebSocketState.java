@@ -19,7 +19,8 @@ public interface WebSocketState {
     
     /**
      * The websocket connection. Can be used to send payloads to clients. All sent payloads
-     * sent must be valid json objects.
+     * sent must be valid json objects, or CBOR maps in binary frames for {@link #binary() binary}
+     * connections.
      *
      * @return The websocket connection.
      */
@@ -46,6 +47,20 @@ public interface WebSocketState {
     @CheckReturnValue
     boolean lavalink();
     
+    /**
+     * Whether or not this connection uses the binary (CBOR) encoding. Binary connections
+     * send and receive CBOR maps in binary frames, with encoded tracks as raw byte strings.
+     *
+     * <br>Lavalink compatible connections are never binary. Defaults to false, so
+     * implementations written before the binary encoding existed keep working.
+     *
+     * @return Whether or not this connection uses the binary encoding.
+     */
+    @CheckReturnValue
+    default boolean binary() {
+        return false;
+    }
+    
     /**
      * Gets a value stored in this connection. Similar to ThreadLocal but on
      * a connection scope.
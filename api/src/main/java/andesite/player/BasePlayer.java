@@ -64,6 +64,26 @@ public interface BasePlayer {
     @CheckReturnValue
     AudioPlayer audioPlayer();
     
+    /**
+     * Returns the volume of this player, not including the volume filter.
+     *
+     * @return The volume of this player.
+     */
+    @CheckReturnValue
+    default int volume() {
+        return filterConfig().playerVolume();
+    }
+    
+    /**
+     * Sets the volume of this player. Should be used instead of {@link AudioPlayer#setVolume(int)},
+     * so the volume filter can be applied through the audio player.
+     *
+     * @param volume Volume to set, where 100 is the original volume.
+     */
+    default void setVolume(int volume) {
+        filterConfig().setPlayerVolume(audioPlayer(), volume);
+    }
+    
     /**
      * Encodes the state of this player for sending to clients.
      *
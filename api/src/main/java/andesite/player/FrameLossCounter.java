@@ -6,6 +6,13 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 
 public interface FrameLossCounter {
+    /**
+     * Packet count expected to be sent over a second.
+     *
+     * <br><br>50 packets with 20ms of audio each.
+     */
+    int EXPECTED_PACKET_COUNT_PER_SECOND = 1000 / 20;
+    
     /**
      * Packet count expected to be sent over a minute.
      *
@@ -22,25 +29,89 @@ public interface FrameLossCounter {
      * <br><br>This data is only valid if {@link #isDataUsable()} returns true.
      *
      * @return The amount of frames lost over the past minute.
+     *
+     * @deprecated Use {@link #lastMinuteLossSum()} or {@link #lossHistogram()}, which
+     * don't need to copy the data.
      */
     @Nonnull
     @CheckReturnValue
+    @Deprecated
     ByteRingBuffer lastMinuteLoss();
     
     /**
      * Returns the amount of frames sent per second over the past minute.
-     * Each entry corresponds to one second. Ideally, all values should be 30.
+     * Each entry corresponds to one second. Ideally, all values should be 50.
      *
      * <br><br>This buffer should not be modified.
      *
      * <br><br>This data is only valid if {@link #isDataUsable()} returns true.
      *
      * @return The amount of frames sent over the past minute.
+     *
+     * @deprecated Use {@link #lastMinuteSuccessSum()} or {@link #successHistogram()}, which
+     * don't need to copy the data.
      */
     @Nonnull
     @CheckReturnValue
+    @Deprecated
     ByteRingBuffer lastMinuteSuccess();
     
+    /**
+     * Returns the total amount of frames lost over the past minute.
+     *
+     * <br><br>This data is only valid if {@link #isDataUsable()} returns true.
+     *
+     * @return The amount of frames lost over the past minute.
+     */
+    @CheckReturnValue
+    default int lastMinuteLossSum() {
+        return lastMinuteLoss().sum();
+    }
+    
+    /**
+     * Returns the total amount of frames sent over the past minute.
+     *
+     * <br><br>This data is only valid if {@link #isDataUsable()} returns true.
+     *
+     * @return The amount of frames sent over the past minute.
+     */
+    @CheckReturnValue
+    default int lastMinuteSuccessSum() {
+        return lastMinuteSuccess().sum();
+    }
+    
+    /**
+     * Returns a histogram of the frames lost per second over the past minute. The value at
+     * index {@code i} is the number of seconds where {@code i} frames were lost, with the last
+     * index also counting seconds with more losses. The array has
+     * {@link #EXPECTED_PACKET_COUNT_PER_SECOND} + 1 entries, and may be freely modified.
+     *
+     * <br><br>This data is only valid if {@link #isDataUsable()} returns true.
+     *
+     * @return Histogram of frames lost per second.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default int[] lossHistogram() {
+        return histogram(lastMinuteLoss());
+    }
+    
+    /**
+     * Returns a histogram of the frames sent per second over the past minute. The value at
+     * index {@code i} is the number of seconds where {@code i} frames were sent, with the last
+     * index also counting seconds with more frames. The array has
+     * {@link #EXPECTED_PACKET_COUNT_PER_SECOND} + 1 entries, and may be freely modified.
+     *
+     * <br><br>This data is only valid if {@link #isDataUsable()} returns true.
+     *
+     * @return Histogram of frames sent per second.
+     */
+    @Nonnull
+    @CheckReturnValue
+    default int[] successHistogram() {
+        return histogram(lastMinuteSuccess());
+    }
+    
     /**
      * Returns whether or not enough data has been gathered for use.
      *
@@ -48,4 +119,12 @@ public interface FrameLossCounter {
      */
     @CheckReturnValue
     boolean isDataUsable();
+    
+    private static int[] histogram(ByteRingBuffer buffer) {
+        var histogram = new int[EXPECTED_PACKET_COUNT_PER_SECOND + 1];
+        for(var v : buffer) {
+            histogram[Math.min(v & 0xFF, EXPECTED_PACKET_COUNT_PER_SECOND)]++;
+        }
+        return histogram;
+    }
 }
@@ -73,6 +73,17 @@ public class ChannelMixConfig implements Config {
                 .setRightToRight(rightToRight);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof ChannelMixPcmAudioFilter)) return false;
+        ((ChannelMixPcmAudioFilter) filter)
+                .setLeftToLeft(leftToLeft)
+                .setLeftToRight(leftToRight)
+                .setRightToLeft(rightToLeft)
+                .setRightToRight(rightToRight);
+        return true;
+    }
+    
     @CheckReturnValue
     @Nonnull
     @Override
@@ -48,6 +48,21 @@ public interface Config {
     @CheckReturnValue
     AudioFilter create(AudioDataFormat format, FloatPcmAudioFilter output);
     
+    /**
+     * Applies the current settings to a filter previously returned by {@link #create(AudioDataFormat, FloatPcmAudioFilter) create},
+     * which may be in use by a playing track.
+     *
+     * <br>The default implementation doesn't support updating filters, making the chain get
+     * rebuilt instead.
+     *
+     * @param filter Filter to update.
+     *
+     * @return True if the filter was updated, false if a new one has to be created.
+     */
+    default boolean update(AudioFilter filter) {
+        return false;
+    }
+    
     /**
      * Encodes the state of this configuration to send to clients.
      *
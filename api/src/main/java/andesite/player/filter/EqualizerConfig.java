@@ -43,6 +43,16 @@ public class EqualizerConfig implements Config {
         return Equalizer.isCompatible(format) ? new Equalizer(format.channelCount, output, equalizerBands) : null;
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof Equalizer)) return false;
+        var equalizer = (Equalizer) filter;
+        for(var i = 0; i < Equalizer.BAND_COUNT; i++) {
+            equalizer.setGain(i, equalizerBands[i]);
+        }
+        return true;
+    }
+    
     @Nonnull
     @Override
     public JsonObject encode() {
@@ -5,6 +5,7 @@ import com.sedmelluq.discord.lavaplayer.filter.FloatPcmAudioFilter;
 import com.sedmelluq.discord.lavaplayer.filter.PcmFilterFactory;
 import com.sedmelluq.discord.lavaplayer.filter.UniversalPcmAudioFilter;
 import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import io.vertx.core.json.JsonObject;
 
@@ -12,13 +13,16 @@ import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Supplier;
 
 public class FilterChainConfiguration {
+    private static final double LAVAPLAYER_GAIN_150 = 2.4621;
+    
     private final ChannelMixConfig channelMix = new ChannelMixConfig();
     private final EqualizerConfig equalizer = new EqualizerConfig();
     private final KaraokeConfig karaoke = new KaraokeConfig();
@@ -28,7 +32,12 @@ public class FilterChainConfiguration {
     private final TremoloConfig tremolo = new TremoloConfig();
     private final VibratoConfig vibrato = new VibratoConfig();
     private final VolumeConfig volume = new VolumeConfig();
-    private final Map<Class<? extends Config>, Config> filters = new HashMap<>();
+    //insertion ordered, so the chain and encoded state always have the same order
+    private final Map<Class<? extends Config>, Config> filters = new LinkedHashMap<>();
+    private Factory applied;
+    private int playerVolume = 100;
+    //whether the volume filter is applied through the player volume instead of a filter
+    private boolean volumeFolded;
     
     public FilterChainConfiguration() {
         filters.put(channelMix.getClass(), channelMix);
@@ -122,7 +131,74 @@ public class FilterChainConfiguration {
     @Nullable
     @CheckReturnValue
     public PcmFilterFactory factory() {
-        return isEnabled() ? new Factory(this) : null;
+        var enabled = enabledConfigs();
+        return enabled.length == 0 ? null : new Factory(enabled, null);
+    }
+    
+    /**
+     * Applies the current settings to a player.
+     *
+     * <br>If the same filters are enabled as the last time this method was called for the
+     * player, the filters already in use are {@link Config#update(AudioFilter) updated} in place.
+     * Otherwise a new factory is set, which makes lavaplayer rebuild the filter chain.
+     *
+     * @param player Player to apply the settings to.
+     */
+    public void apply(@Nonnull AudioPlayer player) {
+        var enabled = enabledConfigs();
+        //a volume alone doesn't need the float pcm chain, lavaplayer can apply it on its own
+        volumeFolded = enabled.length == 1 && enabled[0] == volume;
+        player.setVolume(effectiveVolume());
+        if(volumeFolded) {
+            enabled = new Config[0];
+        }
+        var current = applied;
+        if(current != null && current.player == player && Arrays.equals(current.configs, enabled) &&
+                   current.update()) {
+            return;
+        }
+        if(enabled.length == 0) {
+            applied = null;
+            player.setFilterFactory(null);
+        } else {
+            applied = new Factory(enabled, player);
+            player.setFilterFactory(applied);
+        }
+    }
+    
+    /**
+     * Returns the volume set for the player, in the same scale as {@link AudioPlayer#getVolume()}.
+     * The value returned by the audio player itself may differ, if the volume filter is applied
+     * through it.
+     *
+     * @return The volume set for the player.
+     */
+    @CheckReturnValue
+    public int playerVolume() {
+        return playerVolume;
+    }
+    
+    /**
+     * Sets the volume of a player, combining it with the volume filter if needed.
+     *
+     * @param player Player to set the volume on.
+     * @param volume Volume to set, in the same scale as {@link AudioPlayer#setVolume(int)}.
+     */
+    public void setPlayerVolume(@Nonnull AudioPlayer player, int volume) {
+        this.playerVolume = volume;
+        player.setVolume(effectiveVolume());
+    }
+    
+    /**
+     * Returns whether or not the last settings applied require decoding and encoding the audio,
+     * instead of sending the opus frames of the source as is. Sources that don't provide opus
+     * are always transcoded, regardless of this.
+     *
+     * @return True if filters or a volume other than 100 are applied.
+     */
+    @CheckReturnValue
+    public boolean requiresTranscoding() {
+        return applied != null || effectiveVolume() != 100;
     }
     
     /**
@@ -194,25 +270,73 @@ public class FilterChainConfiguration {
         return volume;
     }
     
+    @CheckReturnValue
+    private int effectiveVolume() {
+        if(!volumeFolded) return playerVolume;
+        var gain = (playerVolume == 100 ? 1 : lavaplayerGain(playerVolume)) * volume.volume();
+        var v = gain <= LAVAPLAYER_GAIN_150 ? Math.atan(gain) / 0.0079 : gain * 150 / LAVAPLAYER_GAIN_150;
+        return (int)Math.max(0, Math.min(1000, Math.round(v)));
+    }
+    
+    //same curve as lavaplayer's PcmVolumeProcessor, which isn't linear
+    private static double lavaplayerGain(int volume) {
+        return volume <= 150 ? Math.tan(volume * 0.0079) : LAVAPLAYER_GAIN_150 * volume / 150;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private Config[] enabledConfigs() {
+        var list = new ArrayList<Config>(filters.size());
+        for(var config : filters.values()) {
+            if(config.enabled()) {
+                list.add(config);
+            }
+        }
+        return list.toArray(new Config[0]);
+    }
+    
     private static class Factory implements PcmFilterFactory {
-        private final FilterChainConfiguration configuration;
+        private final Config[] configs;
+        private final AudioPlayer player;
+        //filters of the last built chain, indexed like configs. Written by the playback thread.
+        private volatile AudioFilter[] filters;
+        
+        private Factory(Config[] configs, @Nullable AudioPlayer player) {
+            this.configs = configs;
+            this.player = player;
+        }
         
-        private Factory(FilterChainConfiguration configuration) {
-            this.configuration = configuration;
+        /**
+         * Updates the filters of the last built chain with the current settings.
+         *
+         * @return False if any of them couldn't be updated.
+         */
+        private boolean update() {
+            var f = filters;
+            //no chain built yet, it'll be built with the current settings
+            if(f == null) return true;
+            for(var i = 0; i < configs.length; i++) {
+                if(f[i] != null && !configs[i].update(f[i])) {
+                    return false;
+                }
+            }
+            return true;
         }
         
         @Override
         public List<AudioFilter> buildChain(AudioTrack track, AudioDataFormat format, UniversalPcmAudioFilter output) {
+            var created = new AudioFilter[configs.length];
             var list = new ArrayList<AudioFilter>();
             list.add(output);
-            for(var config : configuration.filters.values()) {
-                var filter = config.enabled() ?
-                    config.create(format, (FloatPcmAudioFilter) list.get(0)) //may return null
-                    : null;
+            for(var i = 0; i < configs.length; i++) {
+                //may return null
+                var filter = configs[i].create(format, (FloatPcmAudioFilter) list.get(0));
                 if(filter != null) {
+                    created[i] = filter;
                     list.add(0, filter);
                 }
             }
+            filters = created;
             return list.subList(0, list.size() - 1);
         }
     }
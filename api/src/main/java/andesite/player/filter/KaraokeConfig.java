@@ -69,6 +69,17 @@ public class KaraokeConfig implements Config {
             .setFilterWidth(filterWidth);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof KaraokePcmAudioFilter)) return false;
+        ((KaraokePcmAudioFilter) filter)
+            .setLevel(level)
+            .setMonoLevel(monoLevel)
+            .setFilterBand(filterBand)
+            .setFilterWidth(filterWidth);
+        return true;
+    }
+    
     @Nonnull
     @Override
     public JsonObject encode() {
@@ -42,6 +42,14 @@ public class LowPassConfig implements Config {
                 .setSmoothing(smoothing);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof LowPassPcmAudioFilter)) return false;
+        ((LowPassPcmAudioFilter) filter)
+                .setSmoothing(smoothing);
+        return true;
+    }
+    
     @CheckReturnValue
     @Nonnull
     @Override
@@ -42,6 +42,14 @@ public class RotationConfig implements Config {
                 .setRotationSpeed(rotationHz);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof RotationPcmAudioFilter)) return false;
+        ((RotationPcmAudioFilter) filter)
+                .setRotationSpeed(rotationHz);
+        return true;
+    }
+    
     @CheckReturnValue
     @Nonnull
     @Override
@@ -69,6 +69,16 @@ public class TimescaleConfig implements Config {
             .setRate(rate);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof TimescalePcmAudioFilter)) return false;
+        ((TimescalePcmAudioFilter) filter)
+            .setSpeed(speed)
+            .setPitch(pitch)
+            .setRate(rate);
+        return true;
+    }
+    
     @Nonnull
     @Override
     public JsonObject encode() {
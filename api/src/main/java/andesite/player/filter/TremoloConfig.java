@@ -57,6 +57,15 @@ public class TremoloConfig implements Config {
             .setDepth(depth);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof TremoloPcmAudioFilter)) return false;
+        ((TremoloPcmAudioFilter) filter)
+            .setFrequency(frequency)
+            .setDepth(depth);
+        return true;
+    }
+    
     @Nonnull
     @Override
     public JsonObject encode() {
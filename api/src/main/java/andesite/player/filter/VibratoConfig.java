@@ -62,6 +62,15 @@ public class VibratoConfig implements Config {
             .setDepth(depth);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof VibratoPcmAudioFilter)) return false;
+        ((VibratoPcmAudioFilter) filter)
+            .setFrequency(frequency)
+            .setDepth(depth);
+        return true;
+    }
+    
     @Nonnull
     @Override
     public JsonObject encode() {
@@ -44,6 +44,14 @@ public class VolumeConfig implements Config {
             .setVolume(volume);
     }
     
+    @Override
+    public boolean update(AudioFilter filter) {
+        if(!(filter instanceof VolumePcmAudioFilter)) return false;
+        ((VolumePcmAudioFilter) filter)
+            .setVolume(volume);
+        return true;
+    }
+    
     @Nonnull
     @Override
     public JsonObject encode() {
@@ -17,6 +17,19 @@ public interface AudioHandler {
      */
     void setProvider(@Nonnull String userId, @Nonnull String guildId, @Nullable AudioProvider provider);
     
+    /**
+     * Same as {@link #setProvider(String, String, AudioProvider)}, but with already parsed ids.
+     * Implementations that key connections by numeric ids should override this method to
+     * avoid converting the ids back and forth.
+     *
+     * @param userId   User id for the provider.
+     * @param guildId  Guild id for the provider.
+     * @param provider Provider to set.
+     */
+    default void setProvider(long userId, long guildId, @Nullable AudioProvider provider) {
+        setProvider(Long.toUnsignedString(userId), Long.toUnsignedString(guildId), provider);
+    }
+    
     /**
      * Handles a voice update.
      *
@@ -39,4 +52,16 @@ public interface AudioHandler {
      * @param guildId Guild id of the connection.
      */
     void closeConnection(@Nonnull String userId, @Nonnull String guildId);
+    
+    /**
+     * Same as {@link #closeConnection(String, String)}, but with already parsed ids.
+     * Implementations that key connections by numeric ids should override this method to
+     * avoid converting the ids back and forth.
+     *
+     * @param userId  User id of the connection.
+     * @param guildId Guild id of the connection.
+     */
+    default void closeConnection(long userId, long guildId) {
+        closeConnection(Long.toUnsignedString(userId), Long.toUnsignedString(guildId));
+    }
 }
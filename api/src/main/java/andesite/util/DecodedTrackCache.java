@@ -0,0 +1,139 @@
+package andesite.util;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Size bounded cache of decoded tracks, used by {@link RequestUtils}.
+ *
+ * <br>Decoding a track is a base64 decode plus a full lavaplayer decode, while cloning an
+ * already decoded track only creates a new track object sharing the same info. Tracks created
+ * by this cache also remember their encoded form, so encoding them again only needs to update
+ * the position, which lavaplayer writes as the last 8 bytes of the message.
+ *
+ * <br>The remembered form is encoded by this node when the track is first decoded, never the one
+ * sent by the client, which might come from another encoder or lavaplayer version with a different
+ * layout.
+ *
+ * <br>The raw bytes of the strings returned by {@link #encode(AudioPlayerManager, AudioTrack) encode}
+ * are also kept while the strings are in use, so binary connections can send them without
+ * decoding the base64 again.
+ */
+class DecodedTrackCache {
+    private final Map<AudioTrack, Entry> produced = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<String, Entry> entries;
+    private final Map<String, byte[]> raw = Collections.synchronizedMap(new WeakHashMap<>());
+    
+    DecodedTrackCache(int maxSize) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    AudioTrack decode(@Nonnull AudioPlayerManager playerManager, @Nonnull String base64) throws IOException {
+        Entry entry;
+        synchronized(entries) {
+            entry = entries.get(base64);
+        }
+        if(entry != null && entry.playerManager == playerManager) {
+            var track = entry.prototype.makeClone();
+            if(entry.position != 0) {
+                track.setPosition(entry.position);
+            }
+            produced.put(track, entry);
+            return track;
+        }
+        var bytes = Base64.getDecoder().decode(base64);
+        var holder = playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(bytes)));
+        if(holder == null || holder.decodedTrack == null) {
+            return null;
+        }
+        var track = holder.decodedTrack;
+        AudioTrack prototype;
+        try {
+            prototype = track.makeClone();
+        } catch(UnsupportedOperationException e) {
+            //track type doesn't support cloning, always decode those
+            return track;
+        }
+        var encoded = new ByteArrayOutputStream(bytes.length);
+        playerManager.encodeTrack(new MessageOutput(encoded), track);
+        var canonical = encoded.toByteArray();
+        entry = new Entry(playerManager, prototype, track.getPosition(),
+                Base64.getEncoder().encodeToString(canonical), canonical);
+        synchronized(entries) {
+            entries.put(base64, entry);
+        }
+        raw.put(entry.base64, canonical);
+        produced.put(track, entry);
+        return track;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    String encode(@Nonnull AudioPlayerManager playerManager, @Nonnull AudioTrack track) {
+        var entry = produced.get(track);
+        if(entry == null || entry.playerManager != playerManager) {
+            return null;
+        }
+        var position = track.getPosition();
+        if(position == entry.position) {
+            return entry.base64;
+        }
+        var bytes = entry.bytes.clone();
+        var offset = bytes.length - 8;
+        for(var i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) position;
+            position >>>= 8;
+        }
+        var base64 = Base64.getEncoder().encodeToString(bytes);
+        raw.put(base64, bytes);
+        return base64;
+    }
+    
+    void remember(@Nonnull String base64, @Nonnull byte[] bytes) {
+        raw.put(base64, bytes);
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    byte[] raw(@Nonnull String base64) {
+        return raw.get(base64);
+    }
+    
+    private static class Entry {
+        private final AudioPlayerManager playerManager;
+        private final AudioTrack prototype;
+        private final long position;
+        private final String base64;
+        private final byte[] bytes;
+        
+        private Entry(AudioPlayerManager playerManager, AudioTrack prototype, long position,
+                      String base64, byte[] bytes) {
+            this.playerManager = playerManager;
+            this.prototype = prototype;
+            this.position = position;
+            this.base64 = base64;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package andesite.util;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
-import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import io.vertx.core.json.JsonArray;
@@ -11,13 +10,14 @@ import io.vertx.ext.web.RoutingContext;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Base64;
 import java.util.function.Function;
 
 public class RequestUtils {
+    private static final DecodedTrackCache TRACK_CACHE = new DecodedTrackCache(4096);
+    
     /**
      * Attempts to find a password in a request.
      *
@@ -69,6 +69,9 @@ public class RequestUtils {
     /**
      * Decodes an audio track from it's base64 representation.
      *
+     * <br>Recently decoded tracks are cached, so decoding the same track again only
+     * creates a copy of the cached track.
+     *
      * @param playerManager Player manager used for decoding (must have the source manager enabled).
      * @param base64        Base64 encoded track.
      *
@@ -78,10 +81,7 @@ public class RequestUtils {
     @CheckReturnValue
     public static AudioTrack decodeTrack(@Nonnull AudioPlayerManager playerManager, @Nonnull String base64) {
         try {
-            var v = playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(
-                Base64.getDecoder().decode(base64)
-            )));
-            return v == null ? null : v.decodedTrack;
+            return TRACK_CACHE.decode(playerManager, base64);
         } catch(IOException e) {
             throw new AssertionError(e);
         }
@@ -98,13 +98,34 @@ public class RequestUtils {
     @Nonnull
     @CheckReturnValue
     public static String trackString(@Nonnull AudioPlayerManager playerManager, @Nonnull AudioTrack track) {
+        var cached = TRACK_CACHE.encode(playerManager, track);
+        if(cached != null) {
+            return cached;
+        }
         var baos = new ByteArrayOutputStream();
         try {
             playerManager.encodeTrack(new MessageOutput(baos), track);
         } catch(IOException e) {
             throw new AssertionError(e);
         }
-        return Base64.getEncoder().encodeToString(baos.toByteArray());
+        var bytes = baos.toByteArray();
+        var base64 = Base64.getEncoder().encodeToString(bytes);
+        TRACK_CACHE.remember(base64, bytes);
+        return base64;
+    }
+    
+    /**
+     * Returns the raw form of a track encoded by {@link #trackString(AudioPlayerManager, AudioTrack) trackString},
+     * as long as the returned string is still referenced.
+     *
+     * @param base64 Base64 encoded track.
+     *
+     * @return The encoded track, or null if it's not known. The array is shared and must not be modified.
+     */
+    @Nullable
+    @CheckReturnValue
+    public static byte[] trackBytes(@Nonnull String base64) {
+        return TRACK_CACHE.raw(base64);
     }
     
     /**
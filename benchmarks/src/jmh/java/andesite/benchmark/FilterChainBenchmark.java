@@ -0,0 +1,106 @@
+package andesite.benchmark;
+
+import andesite.player.filter.FilterChainConfiguration;
+import andesite.util.NativeUtils;
+import com.sedmelluq.discord.lavaplayer.filter.AudioFilter;
+import com.sedmelluq.discord.lavaplayer.filter.FloatPcmAudioFilter;
+import com.sedmelluq.discord.lavaplayer.filter.PcmFilterFactory;
+import com.sedmelluq.discord.lavaplayer.filter.UniversalPcmAudioFilter;
+import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Building the filter chain for a track and running one frame of audio through it, for each filter.
+ */
+@State(Scope.Thread)
+public class FilterChainBenchmark {
+    private static final AudioDataFormat FORMAT = StandardAudioDataFormats.DISCORD_PCM_S16_BE;
+    
+    @Param({"channelMix", "equalizer", "karaoke", "lowPass", "rotation", "timescale", "tremolo", "vibrato", "volume", "all"})
+    public String filter;
+    
+    private final float[][] input = new float[FORMAT.channelCount][FORMAT.chunkSampleCount];
+    private PcmFilterFactory factory;
+    private FloatPcmAudioFilter head;
+    private SinkFilter output;
+    
+    @Setup
+    public void setup() {
+        NativeUtils.tryLoadTimescale();
+        var config = new FilterChainConfiguration();
+        var all = filter.equals("all");
+        if(all || filter.equals("channelMix")) config.channelMix().setLeftToRight(0.5f);
+        if(all || filter.equals("equalizer")) config.equalizer().setBand(0, 0.25f);
+        if(all || filter.equals("karaoke")) config.karaoke().setLevel(0.5f);
+        if(all || filter.equals("lowPass")) config.lowPass().setSmoothing(10f);
+        if(all || filter.equals("rotation")) config.rotation().setRotationHz(2f);
+        if(all || filter.equals("timescale")) config.timescale().setSpeed(1.25f);
+        if(all || filter.equals("tremolo")) config.tremolo().setDepth(0.75f);
+        if(all || filter.equals("vibrato")) config.vibrato().setDepth(0.75f);
+        if(all || filter.equals("volume")) config.volume().setVolume(0.5f);
+        factory = config.factory();
+        if(factory == null) {
+            throw new IllegalArgumentException("Unknown filter " + filter);
+        }
+        output = new SinkFilter();
+        head = (FloatPcmAudioFilter) factory.buildChain(null, FORMAT, output).get(0);
+        for(var c = 0; c < input.length; c++) {
+            for(var i = 0; i < input[c].length; i++) {
+                input[c][i] = (float) Math.sin(2 * Math.PI * 440 * i / FORMAT.sampleRate) / 2;
+            }
+        }
+    }
+    
+    @Benchmark
+    public List<AudioFilter> buildChain() {
+        return factory.buildChain(null, FORMAT, output);
+    }
+    
+    @Benchmark
+    public float process() throws InterruptedException {
+        head.process(input, 0, FORMAT.chunkSampleCount);
+        return output.checksum;
+    }
+    
+    //reads the output so the filters can't be optimized away
+    private static class SinkFilter implements UniversalPcmAudioFilter {
+        private float checksum;
+        
+        @Override
+        public void process(float[][] input, int offset, int length) {
+            if(length > 0) checksum += input[0][offset];
+        }
+        
+        @Override
+        public void process(short[] input, int offset, int length) {
+            if(length > 0) checksum += input[offset];
+        }
+        
+        @Override
+        public void process(short[][] input, int offset, int length) {
+            if(length > 0) checksum += input[0][offset];
+        }
+        
+        @Override
+        public void seekPerformed(long requestedTime, long providedTime) {
+            //noop
+        }
+        
+        @Override
+        public void flush() {
+            //noop
+        }
+        
+        @Override
+        public void close() {
+            //noop
+        }
+    }
+}
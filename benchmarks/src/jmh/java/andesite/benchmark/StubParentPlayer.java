@@ -0,0 +1,97 @@
+package andesite.benchmark;
+
+import andesite.NodeState;
+import andesite.player.AndesitePlayer;
+import andesite.player.AndesiteTrackMixer;
+import andesite.player.FrameLossCounter;
+import andesite.player.filter.FilterChainConfiguration;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+
+/**
+ * Parent for mixer players created outside of a node. Only the ids are available.
+ */
+public class StubParentPlayer implements AndesitePlayer {
+    @Nonnull
+    @Override
+    public NodeState node() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Nonnull
+    @Override
+    public String userId() {
+        return "1";
+    }
+    
+    @Nonnull
+    @Override
+    public String guildId() {
+        return "2";
+    }
+    
+    @Nonnull
+    @Override
+    public FrameLossCounter frameLossCounter() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Nonnull
+    @Override
+    public FilterChainConfiguration filterConfig() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Nonnull
+    @Override
+    public AudioPlayer audioPlayer() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Nonnull
+    @Override
+    public JsonObject encodeState() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Nonnull
+    @Override
+    public AndesiteTrackMixer mixer() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Nonnull
+    @Override
+    public MixerState mixerState() {
+        return MixerState.ENABLED;
+    }
+    
+    @Override
+    public void switchToMixer() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void switchToSingle() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean canProvide() {
+        return false;
+    }
+    
+    @Nonnull
+    @Override
+    public ByteBuffer provide() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void close() {
+        //noop
+    }
+}
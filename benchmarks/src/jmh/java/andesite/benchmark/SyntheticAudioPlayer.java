@@ -0,0 +1,181 @@
+package andesite.benchmark;
+
+import com.sedmelluq.discord.lavaplayer.filter.PcmFilterFactory;
+import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventListener;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.ImmutableAudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audio player that always provides the same frame, without decoding anything, so benchmarks
+ * measure only the code consuming the frames.
+ *
+ * <br>It always reports a playing track, since providers only lease their buffers while a track
+ * is playing.
+ */
+public class SyntheticAudioPlayer implements AudioPlayer {
+    private static final AudioTrackInfo TRACK_INFO = new AudioTrackInfo(
+            "Synthetic track title", "Synthetic author", Long.MAX_VALUE, "synthetic", true, null
+    );
+    
+    private final AudioTrack track = new SyntheticTrack();
+    private final AudioDataFormat format;
+    private final byte[] data;
+    private long timecode;
+    private int volume = 100;
+    private boolean paused;
+    
+    public SyntheticAudioPlayer(AudioDataFormat format, byte[] data) {
+        this.format = format;
+        this.data = data;
+    }
+    
+    /**
+     * Returns one frame of a 440Hz sine wave, as 16 bit big endian PCM.
+     *
+     * @param format Format of the frame. Must be a 16 bit big endian PCM format.
+     *
+     * @return The frame data.
+     */
+    public static byte[] sinePcm(AudioDataFormat format) {
+        var buffer = ByteBuffer.allocate(format.maximumChunkSize()).order(ByteOrder.BIG_ENDIAN);
+        for(var i = 0; i < format.chunkSampleCount; i++) {
+            var sample = (short) (Math.sin(2 * Math.PI * 440 * i / format.sampleRate) * Short.MAX_VALUE / 2);
+            for(var c = 0; c < format.channelCount; c++) {
+                buffer.putShort(sample);
+            }
+        }
+        return buffer.array();
+    }
+    
+    /**
+     * Returns random bytes with the size of a typical opus frame. The data isn't valid opus,
+     * but providers only copy it.
+     *
+     * @return The frame data.
+     */
+    public static byte[] fakeOpus() {
+        var data = new byte[160];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+    
+    @Override
+    public AudioFrame provide() {
+        timecode += 20;
+        return new ImmutableAudioFrame(timecode, data, volume, format);
+    }
+    
+    @Override
+    public AudioFrame provide(long timeout, TimeUnit unit) {
+        return provide();
+    }
+    
+    @Override
+    public boolean provide(MutableAudioFrame targetFrame) {
+        timecode += 20;
+        targetFrame.setTimecode(timecode);
+        targetFrame.setVolume(volume);
+        targetFrame.setFormat(format);
+        targetFrame.store(data, 0, data.length);
+        return true;
+    }
+    
+    @Override
+    public boolean provide(MutableAudioFrame targetFrame, long timeout, TimeUnit unit) {
+        return provide(targetFrame);
+    }
+    
+    @Override
+    public AudioTrack getPlayingTrack() {
+        return track;
+    }
+    
+    @Override
+    public void playTrack(AudioTrack track) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public boolean startTrack(AudioTrack track, boolean noInterrupt) {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void stopTrack() {
+        //noop
+    }
+    
+    @Override
+    public int getVolume() {
+        return volume;
+    }
+    
+    @Override
+    public void setVolume(int volume) {
+        this.volume = volume;
+    }
+    
+    @Override
+    public void setFilterFactory(PcmFilterFactory factory) {
+        //noop
+    }
+    
+    @Override
+    public void setFrameBufferDuration(Integer duration) {
+        //noop
+    }
+    
+    @Override
+    public boolean isPaused() {
+        return paused;
+    }
+    
+    @Override
+    public void setPaused(boolean value) {
+        this.paused = value;
+    }
+    
+    @Override
+    public void destroy() {
+        //noop
+    }
+    
+    @Override
+    public void addListener(AudioEventListener listener) {
+        //noop
+    }
+    
+    @Override
+    public void removeListener(AudioEventListener listener) {
+        //noop
+    }
+    
+    @Override
+    public void checkCleanup(long threshold) {
+        //noop
+    }
+    
+    private static class SyntheticTrack extends BaseAudioTrack {
+        SyntheticTrack() {
+            super(TRACK_INFO);
+        }
+        
+        @Override
+        public void process(LocalAudioTrackExecutor executor) {
+            //frames come straight from the player
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package andesite.benchmark;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+
+/**
+ * Player manager configured like the pcm manager used by mixers, creating synthetic players.
+ */
+public class SyntheticPlayerManager extends DefaultAudioPlayerManager {
+    private final byte[] pcm = SyntheticAudioPlayer.sinePcm(StandardAudioDataFormats.DISCORD_PCM_S16_BE);
+    
+    public SyntheticPlayerManager() {
+        getConfiguration().setOutputFormat(StandardAudioDataFormats.DISCORD_PCM_S16_BE);
+    }
+    
+    @Override
+    public AudioPlayer createPlayer() {
+        return new SyntheticAudioPlayer(StandardAudioDataFormats.DISCORD_PCM_S16_BE, pcm);
+    }
+}
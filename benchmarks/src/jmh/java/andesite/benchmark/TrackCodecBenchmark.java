@@ -0,0 +1,52 @@
+package andesite.benchmark;
+
+import andesite.util.RequestUtils;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Encoding and decoding of tracks, done for every play request and track event.
+ */
+@State(Scope.Thread)
+public class TrackCodecBenchmark {
+    private AudioPlayerManager manager;
+    private AudioTrack track;
+    private String encoded;
+    
+    @Setup
+    public void setup() {
+        manager = new DefaultAudioPlayerManager();
+        var source = new YoutubeAudioSourceManager();
+        manager.registerSourceManager(source);
+        //nothing is loaded, so no network access is needed
+        track = new YoutubeAudioTrack(new AudioTrackInfo(
+                "Synthetic track title", "Synthetic author", 212_000, "dQw4w9WgXcQ",
+                false, "https://www.youtube.com/watch?v=dQw4w9WgXcQ"
+        ), source);
+        encoded = RequestUtils.trackString(manager, track);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        manager.shutdown();
+    }
+    
+    @Benchmark
+    public String trackString() {
+        return RequestUtils.trackString(manager, track);
+    }
+    
+    @Benchmark
+    public AudioTrack decodeTrack() {
+        return RequestUtils.decodeTrack(manager, encoded);
+    }
+}
@@ -0,0 +1,72 @@
+package andesite.player;
+
+import andesite.benchmark.StubParentPlayer;
+import andesite.benchmark.SyntheticPlayerManager;
+import andesite.event.EncodedEvent;
+import com.typesafe.config.ConfigFactory;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Encoding of player state and of the resulting player update, sent every few seconds for every
+ * playing player.
+ *
+ * <br>Uses a mixer player, since regular players can only be created by a running node. Both
+ * encode the same filter and frame state.
+ */
+@State(Scope.Thread)
+public class EncodeStateBenchmark {
+    private Vertx vertx;
+    private SyntheticPlayerManager manager;
+    private TrackMixer mixer;
+    private TrackMixer.Player player;
+    
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        manager = new SyntheticPlayerManager();
+        //adaptive buffering disabled, like the default config
+        var bufferBudget = new FrameBufferBudget(vertx, ConfigFactory.parseString(
+                "enabled = false, min-duration = 1000, memory-budget = 256M, adjust-interval = 5s"), 5000);
+        mixer = new TrackMixer(manager, new StubParentPlayer(), new FrameClock(vertx), null, bufferBudget, new BufferPool());
+        player = mixer.getPlayer("benchmark");
+        player.filterConfig().timescale().setSpeed(1.25f);
+        player.filterConfig().equalizer().setBand(3, 0.1f);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        mixer.close();
+        manager.shutdown();
+        vertx.close();
+    }
+    
+    @Benchmark
+    public JsonObject encodeState() {
+        return player.encodeState();
+    }
+    
+    @Benchmark
+    public String playerUpdateJson() {
+        return new EncodedEvent(playerUpdate()).text();
+    }
+    
+    @Benchmark
+    public Buffer playerUpdateCbor() {
+        return new EncodedEvent(playerUpdate()).binary();
+    }
+    
+    private JsonObject playerUpdate() {
+        return new JsonObject()
+                .put("op", "player-update")
+                .put("guildId", player.guildId())
+                .put("userId", player.userId())
+                .put("state", player.encodeState());
+    }
+}
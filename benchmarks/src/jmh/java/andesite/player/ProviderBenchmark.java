@@ -0,0 +1,44 @@
+package andesite.player;
+
+import andesite.benchmark.SyntheticAudioPlayer;
+import andesite.send.AudioProvider;
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copying one opus frame from the audio player, as done by the sending thread for every player
+ * not using the mixer. Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Thread)
+public class ProviderBenchmark {
+    @Param({"allocating", "non-allocating"})
+    public String provider;
+    
+    private AudioProvider audioProvider;
+    
+    @Setup
+    public void setup() {
+        var player = new SyntheticAudioPlayer(StandardAudioDataFormats.DISCORD_OPUS, SyntheticAudioPlayer.fakeOpus());
+        var configuration = new AudioConfiguration();
+        audioProvider = switch(provider) {
+            case "allocating" -> new AllocatingProvider(player, configuration);
+            case "non-allocating" -> new NonAllocatingProvider(player, configuration, new BufferPool());
+            default -> throw new IllegalArgumentException("Unknown provider " + provider);
+        };
+    }
+    
+    @Benchmark
+    public ByteBuffer provide() {
+        if(!audioProvider.canProvide()) {
+            throw new AssertionError("Synthetic player should always provide");
+        }
+        return audioProvider.provide();
+    }
+}
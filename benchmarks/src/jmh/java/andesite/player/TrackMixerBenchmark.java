@@ -0,0 +1,57 @@
+package andesite.player;
+
+import andesite.benchmark.StubParentPlayer;
+import andesite.benchmark.SyntheticPlayerManager;
+import andesite.util.NativeUtils;
+import com.typesafe.config.ConfigFactory;
+import io.vertx.core.Vertx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mixing and opus encoding of one frame, as done by the sending thread for a player using the mixer.
+ */
+@State(Scope.Thread)
+public class TrackMixerBenchmark {
+    @Param({"1", "2", "4", "8", "16"})
+    public int players;
+    
+    private Vertx vertx;
+    private SyntheticPlayerManager manager;
+    private TrackMixer mixer;
+    
+    @Setup
+    public void setup() {
+        NativeUtils.tryLoadConnector();
+        vertx = Vertx.vertx();
+        manager = new SyntheticPlayerManager();
+        //adaptive buffering disabled, like the default config
+        var bufferBudget = new FrameBufferBudget(vertx, ConfigFactory.parseString(
+                "enabled = false, min-duration = 1000, memory-budget = 256M, adjust-interval = 5s"), 5000);
+        mixer = new TrackMixer(manager, new StubParentPlayer(), new FrameClock(vertx), null, bufferBudget, new BufferPool());
+        for(var i = 0; i < players; i++) {
+            mixer.getPlayer(String.valueOf(i));
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        mixer.close();
+        manager.shutdown();
+        vertx.close();
+    }
+    
+    @Benchmark
+    public ByteBuffer provide() {
+        if(!mixer.canProvide()) {
+            throw new AssertionError("Synthetic players should always provide");
+        }
+        return mixer.provide();
+    }
+}
@@ -0,0 +1,232 @@
+package andesite.load;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.http.WebSocketConnectOptions;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives an andesite node with a scripted workload over the websocket api, to measure how many
+ * players it sustains. Meant to be used with a node running the {@code fake} audio handler and
+ * the {@code local} source enabled.
+ *
+ * <br>Configured with system properties:
+ * <ul>
+ *     <li>{@code host}, {@code port}, {@code password} and {@code userId} of the node</li>
+ *     <li>{@code tracks}: comma separated identifiers to play, usually local files</li>
+ *     <li>{@code players}: number of guilds to create</li>
+ *     <li>{@code rampPerSecond}: how many guilds are started per second</li>
+ *     <li>{@code connections}: number of websocket connections to spread the guilds across</li>
+ *     <li>{@code script}: path of the script to run for each guild, see {@link ScriptStep}</li>
+ *     <li>{@code duration}: seconds to run for, 0 to run until killed</li>
+ * </ul>
+ */
+public class LoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long GUILD_ID_BASE = 100_000_000_000_000_000L;
+    
+    private final Map<String, AtomicLong> received = new ConcurrentHashMap<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final Vertx vertx;
+    private final HttpClient client;
+    private final String host;
+    private final int port;
+    private final String password;
+    private final String userId;
+    private final List<ScriptStep> script;
+    private final List<WebSocket> sockets = new ArrayList<>();
+    private List<String> tracks;
+    
+    private LoadGenerator(Vertx vertx, List<ScriptStep> script) {
+        this.vertx = vertx;
+        this.client = vertx.createHttpClient();
+        this.host = System.getProperty("host", "localhost");
+        this.port = Integer.getInteger("port", 5000);
+        this.password = System.getProperty("password");
+        this.userId = System.getProperty("userId", "1");
+        this.script = script;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        var trackList = System.getProperty("tracks");
+        if(trackList == null || trackList.isBlank()) {
+            System.err.println("The tracks property is required, eg -Dtracks=/path/to/a.mp3,/path/to/b.mp3");
+            System.exit(1);
+        }
+        var scriptPath = System.getProperty("script");
+        var script = ScriptStep.parse(scriptPath == null ? defaultScript() : Files.readString(Path.of(scriptPath)));
+        var players = Integer.getInteger("players", 100);
+        var ramp = Integer.getInteger("rampPerSecond", 50);
+        var connections = Integer.getInteger("connections", 1);
+        var duration = Integer.getInteger("duration", 0);
+        
+        var vertx = Vertx.vertx();
+        var generator = new LoadGenerator(vertx, script);
+        generator.loadTracks(List.of(trackList.split(",")))
+                .compose(__ -> generator.connect(connections))
+                .onSuccess(__ -> {
+                    generator.start(players, Math.max(ramp, 1));
+                    vertx.setPeriodic(10_000, ___ -> generator.report());
+                    if(duration > 0) {
+                        vertx.setTimer(duration * 1000L, ___ -> {
+                            generator.report();
+                            vertx.close(____ -> System.exit(0));
+                        });
+                    }
+                })
+                .onFailure(e -> {
+                    log.error("Error starting load test", e);
+                    vertx.close(__ -> System.exit(1));
+                });
+    }
+    
+    private Future<Void> loadTracks(List<String> identifiers) {
+        var promise = Promise.<Void>promise();
+        var encoded = new ArrayList<String>();
+        var remaining = new AtomicLong(identifiers.size());
+        for(var identifier : identifiers) {
+            //avoid ytsearch being prepended to file paths
+            var query = identifier.startsWith("/") ? "raw:" + identifier.strip() : identifier.strip();
+            var request = client.request(HttpMethod.GET, port, host,
+                    "/loadtracks?identifier=" + URLEncoder.encode(query, StandardCharsets.UTF_8));
+            authenticate(request::putHeader);
+            request.handler(response -> response.bodyHandler(body -> {
+                var json = body.toJsonObject();
+                var tracks = json.getJsonArray("tracks");
+                if(tracks == null || tracks.isEmpty()) {
+                    promise.tryFail("Unable to load " + identifier + ": " + json.encode());
+                    return;
+                }
+                synchronized(encoded) {
+                    encoded.add(tracks.getJsonObject(0).getString("track"));
+                }
+                if(remaining.decrementAndGet() == 0) {
+                    this.tracks = List.copyOf(encoded);
+                    log.info("Loaded {} tracks", encoded.size());
+                    promise.tryComplete();
+                }
+            })).exceptionHandler(promise::tryFail).end();
+        }
+        return promise.future();
+    }
+    
+    private Future<Void> connect(int count) {
+        var promise = Promise.<Void>promise();
+        var remaining = new AtomicLong(count);
+        for(var i = 0; i < count; i++) {
+            var options = new WebSocketConnectOptions()
+                    .setHost(host)
+                    .setPort(port)
+                    .setURI("/websocket");
+            authenticate(options::addHeader);
+            client.webSocket(options, result -> {
+                if(result.failed()) {
+                    promise.tryFail(result.cause());
+                    return;
+                }
+                var ws = result.result();
+                ws.textMessageHandler(text -> {
+                    var op = new JsonObject(text).getString("op", "unknown");
+                    received.computeIfAbsent(op, __ -> new AtomicLong()).incrementAndGet();
+                });
+                ws.closeHandler(__ -> log.error("Websocket closed: {} {}", ws.closeStatusCode(), ws.closeReason()));
+                synchronized(sockets) {
+                    sockets.add(ws);
+                }
+                if(remaining.decrementAndGet() == 0) {
+                    log.info("Opened {} websocket connections", count);
+                    promise.tryComplete();
+                }
+            });
+        }
+        return promise.future();
+    }
+    
+    private void start(int players, int rampPerSecond) {
+        var interval = Math.max(1000 / rampPerSecond, 1);
+        var started = new AtomicLong();
+        vertx.setPeriodic(interval, timer -> {
+            var batch = Math.max(rampPerSecond * interval / 1000, 1);
+            for(var i = 0; i < batch; i++) {
+                var n = started.getAndIncrement();
+                if(n >= players) {
+                    vertx.cancelTimer(timer);
+                    log.info("Started {} players", players);
+                    return;
+                }
+                var ws = sockets.get((int) (n % sockets.size()));
+                var guildId = Long.toString(GUILD_ID_BASE + n);
+                send(ws, new JsonObject()
+                        .put("op", "voice-server-update")
+                        .put("guildId", guildId)
+                        .put("sessionId", "load-test")
+                        .put("event", new JsonObject()
+                                .put("guild_id", guildId)
+                                .put("endpoint", "load-test.invalid")
+                                .put("token", "load-test")));
+                run(ws, guildId, 0);
+            }
+        });
+    }
+    
+    private void run(WebSocket ws, String guildId, int index) {
+        if(index >= script.size()) return;
+        var step = script.get(index);
+        switch(step.command) {
+            case "wait" -> vertx.setTimer(Math.max(Long.parseLong(step.argument), 1), __ -> run(ws, guildId, index + 1));
+            case "repeat" -> vertx.setTimer(1, __ -> run(ws, guildId, 0));
+            default -> {
+                send(ws, Objects.requireNonNull(step.payload(guildId, tracks)));
+                run(ws, guildId, index + 1);
+            }
+        }
+    }
+    
+    private void send(WebSocket ws, JsonObject payload) {
+        sent.incrementAndGet();
+        ws.writeTextMessage(payload.encode());
+    }
+    
+    private void report() {
+        log.info("Sent {} payloads, received {}", sent.get(), received);
+    }
+    
+    private void authenticate(HeaderSink sink) {
+        if(password != null) {
+            sink.put("Authorization", password);
+        }
+        sink.put("User-Id", userId);
+    }
+    
+    private static String defaultScript() {
+        try(var in = LoadGenerator.class.getResourceAsStream("/default-load-script.txt")) {
+            return new String(Objects.requireNonNull(in).readAllBytes(), StandardCharsets.UTF_8);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @FunctionalInterface
+    private interface HeaderSink {
+        Object put(String name, String value);
+    }
+}
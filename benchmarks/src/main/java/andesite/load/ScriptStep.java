@@ -0,0 +1,78 @@
+package andesite.load;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One step of a load test script. Scripts have one step per line, empty lines and lines
+ * starting with {@code #} are ignored:
+ *
+ * <ul>
+ *     <li>{@code play} plays a random track from the ones provided</li>
+ *     <li>{@code wait <ms>} waits before running the next step</li>
+ *     <li>{@code seek <ms|random>} seeks the current track</li>
+ *     <li>{@code pause} and {@code resume}</li>
+ *     <li>{@code volume <volume>}</li>
+ *     <li>{@code filters <json>} sends a filter update with the provided json</li>
+ *     <li>{@code destroy} destroys the player</li>
+ *     <li>{@code repeat} goes back to the first step</li>
+ * </ul>
+ */
+class ScriptStep {
+    final String command;
+    final String argument;
+    
+    private ScriptStep(String command, String argument) {
+        this.command = command;
+        this.argument = argument;
+    }
+    
+    static List<ScriptStep> parse(String script) {
+        var steps = new ArrayList<ScriptStep>();
+        var lineNumber = 0;
+        for(var line : script.split("\n")) {
+            lineNumber++;
+            line = line.strip();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            var space = line.indexOf(' ');
+            var command = space == -1 ? line : line.substring(0, space);
+            var argument = space == -1 ? null : line.substring(space + 1).strip();
+            switch(command) {
+                case "play", "pause", "resume", "destroy", "repeat" -> {}
+                case "wait", "seek", "volume", "filters" -> {
+                    if(argument == null) {
+                        throw new IllegalArgumentException("Line " + lineNumber + ": " + command + " requires an argument");
+                    }
+                }
+                default -> throw new IllegalArgumentException("Line " + lineNumber + ": unknown command " + command);
+            }
+            steps.add(new ScriptStep(command, argument));
+        }
+        if(steps.isEmpty()) {
+            throw new IllegalArgumentException("Empty script");
+        }
+        return steps;
+    }
+    
+    /**
+     * Returns the websocket payload for this step, or null if it doesn't send anything.
+     */
+    JsonObject payload(String guildId, List<String> tracks) {
+        var random = ThreadLocalRandom.current();
+        var payload = new JsonObject().put("guildId", guildId);
+        return switch(command) {
+            case "play" -> payload.put("op", "play").put("track", tracks.get(random.nextInt(tracks.size())));
+            case "seek" -> payload.put("op", "seek").put("position",
+                    argument.equals("random") ? random.nextLong(0, 60_000) : Long.parseLong(argument));
+            case "pause" -> payload.put("op", "pause").put("pause", true);
+            case "resume" -> payload.put("op", "pause").put("pause", false);
+            case "volume" -> payload.put("op", "volume").put("volume", Integer.parseInt(argument));
+            case "filters" -> new JsonObject(argument).put("op", "filters").put("guildId", guildId);
+            case "destroy" -> payload.put("op", "destroy");
+            default -> null;
+        };
+    }
+}
@@ -4,16 +4,26 @@ import andesite.event.EventBuffer;
 import andesite.event.EventDispatcherImpl;
 import andesite.handler.RequestHandler;
 import andesite.handler.RestHandler;
+import andesite.player.BroadcastManager;
+import andesite.player.BufferPool;
+import andesite.player.FrameBufferBudget;
+import andesite.player.FrameClock;
+import andesite.player.NodeStatsAggregator;
+import andesite.player.PlayerJournal;
 import andesite.player.Player;
 import andesite.plugin.PluginManager;
 import andesite.send.AudioHandler;
+import andesite.send.fake.FakeAudioHandler;
 import andesite.send.koe.KoeHandler;
 import andesite.send.magma.MagmaHandler;
 import andesite.util.ConfigUtil;
 import andesite.util.FilterUtil;
 import andesite.util.Init;
 import andesite.util.LazyInit;
+import andesite.util.LongPairMap;
 import andesite.util.NativeUtils;
+import andesite.util.TimerWheel;
+import andesite.util.TrackLoadLimiter;
 import com.github.natanbc.nativeloader.NativeLibLoader;
 import com.github.natanbc.nativeloader.SystemNativeLibraryProperties;
 import com.github.natanbc.nativeloader.system.SystemType;
@@ -41,6 +51,7 @@ import com.sedmelluq.lava.extensions.youtuberotator.tools.ip.Ipv4Block;
 import com.sedmelluq.lava.extensions.youtuberotator.tools.ip.Ipv6Block;
 import com.typesafe.config.Config;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,11 +63,14 @@ import java.io.IOException;
 import java.lang.ref.Cleaner;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -84,7 +98,10 @@ public class Andesite implements NodeState {
     private final PluginManager pluginManager = new PluginManager(this);
     private final AtomicLong nextBufferId = new AtomicLong();
     private final Map<Long, EventBuffer> buffers = new ConcurrentHashMap<>();
-    private final Map<String, Map<String, Player>> players = new ConcurrentHashMap<>();
+    private final LongPairMap<Player> players = new LongPairMap<>();
+    /* players of each user, so user scoped views don't scan every player */
+    private final Map<Long, Set<Player>> playersByUser = new ConcurrentHashMap<>();
+    private final NodeStatsAggregator nodeStatsAggregator = new NodeStatsAggregator();
     private final AudioPlayerManager playerManager = new DefaultAudioPlayerManager();
     private final AudioPlayerManager pcmPlayerManager = new DefaultAudioPlayerManager();
     private final EventDispatcherImpl dispatcher = new EventDispatcherImpl(this);
@@ -92,6 +109,13 @@ public class Andesite implements NodeState {
     private final Config rootConfig;
     private final AudioHandler audioHandler;
     private final RequestHandler handler;
+    private final PlayerJournal playerJournal;
+    private final FrameBufferBudget frameBufferBudget;
+    private final BufferPool bufferPool = new BufferPool();
+    private final TrackLoadLimiter trackLoadLimiter;
+    private final BroadcastManager broadcastManager;
+    private final TimerWheel[] timerWheels;
+    private final FrameClock frameClock;
     private final Set<String> enabledSources;
     
     private Andesite(@Nonnull Vertx vertx, @Nonnull Config rootConfig) throws IOException {
@@ -109,9 +133,22 @@ public class Andesite implements NodeState {
             pluginManager.load(new File(f));
         }
         this.vertx = vertx;
+        //one wheel per event loop, contexts created outside of vertx threads are spread across the event loops
+        this.timerWheels = new TimerWheel[VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE];
+        for(var i = 0; i < timerWheels.length; i++) {
+            //100ms ticks, 512 buckets = ~51s per revolution, enough for the player timers to need no rounds
+            timerWheels[i] = new TimerWheel(vertx.getOrCreateContext(), 100, 512);
+        }
+        this.frameClock = new FrameClock(vertx);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "andesite-shutdown"));
+        this.frameBufferBudget = new FrameBufferBudget(vertx, config.getConfig("lavaplayer.adaptive-buffer"),
+                config.getInt("lavaplayer.frame-buffer-duration"));
         this.rootConfig = pluginManager.applyPluginDefaults(rootConfig);
         this.audioHandler = createAudioHandler(config);
+        this.trackLoadLimiter = new TrackLoadLimiter(config.getConfig("lavaplayer.loading"));
         this.handler = new RequestHandler(this);
+        this.playerJournal = new PlayerJournal(this, config.getConfig("journal"));
+        this.broadcastManager = new BroadcastManager(playerManager, config.getBoolean("broadcast.enabled"));
         pluginManager.init();
         pluginManager.configurePlayerManager(playerManager);
         pluginManager.configurePlayerManager(pcmPlayerManager);
@@ -141,7 +178,9 @@ public class Andesite implements NodeState {
         pcmPlayerManager.getConfiguration().setOutputFormat(StandardAudioDataFormats.DISCORD_PCM_S16_BE);
         pcmPlayerManager.getConfiguration().setFilterHotSwapEnabled(true);
         pcmPlayerManager.getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
-    
+        
+        playerManager.setItemLoaderThreadPoolSize(config.getInt("lavaplayer.loading.threads"));
+        pcmPlayerManager.setItemLoaderThreadPoolSize(config.getInt("lavaplayer.loading.threads"));
         playerManager.setFrameBufferDuration(config.getInt("lavaplayer.frame-buffer-duration"));
         pcmPlayerManager.setFrameBufferDuration(config.getInt("lavaplayer.frame-buffer-duration"));
     }
@@ -158,6 +197,62 @@ public class Andesite implements NodeState {
         return enabledSources;
     }
     
+    @Nonnull
+    @CheckReturnValue
+    public BroadcastManager broadcastManager() {
+        return broadcastManager;
+    }
+    
+    /**
+     * Returns the timer wheel used by the players of a guild. Guilds are spread across one wheel
+     * per event loop.
+     *
+     * @param guildId Guild id of the player.
+     *
+     * @return The timer wheel for the guild.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public TimerWheel timerWheel(long guildId) {
+        return timerWheels[Math.floorMod(Long.hashCode(guildId), timerWheels.length)];
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public FrameClock frameClock() {
+        return frameClock;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public TrackLoadLimiter trackLoadLimiter() {
+        return trackLoadLimiter;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public BufferPool bufferPool() {
+        return bufferPool;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public FrameBufferBudget frameBufferBudget() {
+        return frameBufferBudget;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public PlayerJournal playerJournal() {
+        return playerJournal;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public NodeStatsAggregator nodeStatsAggregator() {
+        return nodeStatsAggregator;
+    }
+    
     @CheckReturnValue
     public long nextConnectionId() {
         return nextBufferId.incrementAndGet();
@@ -166,7 +261,7 @@ public class Andesite implements NodeState {
     @Nonnull
     @CheckReturnValue
     public EventBuffer createEventBuffer(long id, Set<Player> subscriptions) {
-        var buffer = new EventBuffer(subscriptions);
+        var buffer = new EventBuffer(subscriptions, rootConfig.getConfig("andesite.event-buffer"));
         buffers.put(id, buffer);
         return buffer;
     }
@@ -229,16 +324,32 @@ public class Andesite implements NodeState {
     @CheckReturnValue
     @Override
     public Map<String, Player> playerMap(@Nonnull String userId) {
-        return players.computeIfAbsent(userId, __ -> new ConcurrentHashMap<>());
+        var id = parseId(userId);
+        //no player can exist for a non numeric id
+        return id == null ? Map.of() : new UserPlayerMap(id);
     }
     
     @Nonnull
     @CheckReturnValue
     @Override
     public Player getPlayer(@Nonnull String userId, @Nonnull String guildId) {
-        return playerMap(userId).computeIfAbsent(guildId, __ -> {
-            var player = new Player(this, guildId, userId);
-            dispatcher.onPlayerCreated(userId, guildId, player);
+        var user = parseId(userId);
+        var guild = parseId(guildId);
+        if(user == null || guild == null) {
+            throw new IllegalArgumentException("Invalid user id " + userId + " or guild id " + guildId);
+        }
+        return getPlayer(user, guild);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Player getPlayer(long userId, long guildId) {
+        return players.computeIfAbsent(userId, guildId, () -> {
+            var user = Long.toUnsignedString(userId);
+            var guild = Long.toUnsignedString(guildId);
+            var player = new Player(this, guild, user);
+            indexPlayer(userId, player);
+            dispatcher.onPlayerCreated(user, guild, player);
             return player;
         });
     }
@@ -247,18 +358,33 @@ public class Andesite implements NodeState {
     @CheckReturnValue
     @Override
     public Player getExistingPlayer(@Nonnull String userId, @Nonnull String guildId) {
-        var map = players.get(userId);
-        return map == null ? null : map.get(guildId);
+        var user = parseId(userId);
+        var guild = parseId(guildId);
+        return user == null || guild == null ? null : getExistingPlayer(user, guild);
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    public Player getExistingPlayer(long userId, long guildId) {
+        return players.get(userId, guildId);
     }
     
     @Nullable
     @Override
     public Player removePlayer(@Nonnull String userId, @Nonnull String guildId) {
-        var map = players.get(userId);
-        if(map == null) return null;
-        var player = map.remove(guildId);
+        var user = parseId(userId);
+        var guild = parseId(guildId);
+        return user == null || guild == null ? null : removePlayer(user, guild);
+    }
+    
+    @Nullable
+    public Player removePlayer(long userId, long guildId) {
+        var player = players.remove(userId, guildId);
         if(player != null) {
-            dispatcher.onPlayerDestroyed(userId, guildId, player);
+            unindexPlayer(userId, player);
+            handler.clearVoiceState(userId, guildId);
+            playerJournal.removed(player);
+            dispatcher.onPlayerDestroyed(player.userId(), player.guildId(), player);
         }
         return player;
     }
@@ -267,7 +393,21 @@ public class Andesite implements NodeState {
     @CheckReturnValue
     @Override
     public Stream<Player> allPlayers() {
-        return players.values().stream().flatMap(m -> m.values().stream());
+        return players.values().stream();
+    }
+    
+    /**
+     * Calls the provided action for all existing players. Cheaper than {@link #allPlayers()}.
+     *
+     * @param action Action to call.
+     */
+    public void forEachPlayer(@Nonnull Consumer<? super Player> action) {
+        players.forEach(action);
+    }
+    
+    @CheckReturnValue
+    public int playerCount() {
+        return players.size();
     }
     
     @Nonnull
@@ -284,6 +424,7 @@ public class Andesite implements NodeState {
         return switch(handlerName) {
             case "magma" -> new MagmaHandler(this);
             case "koe" -> new KoeHandler(this);
+            case "fake" -> new FakeAudioHandler(this);
             default -> pluginManager.loadHandler(AudioHandler.class, handlerName);
         };
     }
@@ -396,4 +537,96 @@ public class Andesite implements NodeState {
         Init.preInit(config);
         return new Andesite(Vertx.vertx(), rootConfig);
     }
+    
+    @Nullable
+    @CheckReturnValue
+    private static Long parseId(@Nullable Object id) {
+        if(!(id instanceof String)) return null;
+        try {
+            return Long.parseUnsignedLong((String) id);
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private void shutdown() {
+        for(var wheel : timerWheels) {
+            wheel.close();
+        }
+        frameClock.close();
+    }
+    
+    private void indexPlayer(long userId, @Nonnull Player player) {
+        playersByUser.compute(userId, (__, set) -> {
+            if(set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(player);
+            return set;
+        });
+    }
+    
+    private void unindexPlayer(long userId, @Nonnull Player player) {
+        playersByUser.computeIfPresent(userId, (__, set) -> {
+            set.remove(player);
+            return set.isEmpty() ? null : set;
+        });
+    }
+    
+    /**
+     * View of the players of an user, keyed by guild id. Iteration works on a snapshot of
+     * the players of the user.
+     */
+    private class UserPlayerMap extends AbstractMap<String, Player> {
+        private final long userId;
+        
+        UserPlayerMap(long userId) {
+            this.userId = userId;
+        }
+        
+        @Override
+        public Player get(Object key) {
+            var guildId = parseId(key);
+            return guildId == null ? null : players.get(userId, guildId);
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+        
+        @Override
+        public Player remove(Object key) {
+            var guildId = parseId(key);
+            //same as removing it through the node, so the journal and listeners know about it
+            return guildId == null ? null : removePlayer(userId, guildId);
+        }
+        
+        @Override
+        public Player computeIfAbsent(String key, Function<? super String, ? extends Player> mappingFunction) {
+            return players.computeIfAbsent(userId, Long.parseUnsignedLong(key), () -> {
+                var player = mappingFunction.apply(key);
+                if(player != null) {
+                    indexPlayer(userId, player);
+                }
+                return player;
+            });
+        }
+        
+        @Override
+        public int size() {
+            var set = playersByUser.get(userId);
+            return set == null ? 0 : set.size();
+        }
+        
+        @Nonnull
+        @Override
+        public Set<Entry<String, Player>> entrySet() {
+            var set = playersByUser.get(userId);
+            if(set == null) return Set.of();
+            return set.stream()
+                       .map(p -> Map.entry(p.guildId(), p))
+                       .collect(Collectors.toSet());
+        }
+    }
 }
@@ -0,0 +1,114 @@
+package andesite.event;
+
+import andesite.util.CborCodec;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A player event shared by every listener of a player.
+ *
+ * <br>The payload is built once per event, and its encoded forms are computed at most once
+ * per format, no matter how many connections/buffers receive the event. The payload must not
+ * be modified after creation.
+ */
+public class EncodedEvent {
+    private static final CborCodec.TrackFields TRACKS = CborCodec.TrackFields.of("track");
+    
+    private final JsonObject payload;
+    private volatile String text;
+    private volatile String lavalinkText;
+    private volatile Buffer binary;
+    
+    public EncodedEvent(@Nonnull JsonObject payload) {
+        this.payload = payload;
+    }
+    
+    /**
+     * Returns the payload of this event. It's shared with other listeners and must not be modified.
+     *
+     * @return The payload of this event.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public JsonObject payload() {
+        return payload;
+    }
+    
+    /**
+     * Returns the payload encoded as json.
+     *
+     * @return The encoded payload.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public String text() {
+        var t = text;
+        if(t == null) {
+            //racing threads may both encode, but they produce identical strings
+            text = t = payload.encode();
+        }
+        return t;
+    }
+    
+    /**
+     * Returns the payload encoded as CBOR, for binary connections.
+     *
+     * @return The encoded payload.
+     *
+     * @see CborCodec
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Buffer binary() {
+        var b = binary;
+        if(b == null) {
+            binary = b = CborCodec.encode(payload, TRACKS);
+        }
+        return b;
+    }
+    
+    /**
+     * Returns the payload, converted to the lavalink format, encoded as json.
+     *
+     * @return The encoded lavalink payload, or null if this event isn't sent to lavalink clients.
+     */
+    @Nullable
+    @CheckReturnValue
+    public String lavalinkText() {
+        var t = lavalinkText;
+        if(t == null) {
+            var transformed = toLavalink(payload.copy());
+            if(transformed == null) return null;
+            lavalinkText = t = transformed.encode();
+        }
+        return t;
+    }
+    
+    /**
+     * Converts an andesite payload to the equivalent lavalink payload, modifying it in place.
+     *
+     * @param payload Payload to convert.
+     *
+     * @return The converted payload, or null if it shouldn't be sent to lavalink clients.
+     */
+    @Nullable
+    @CheckReturnValue
+    public static JsonObject toLavalink(@Nonnull JsonObject payload) {
+        if("player-update".equals(payload.getValue("op", null))) {
+            return payload.put("op", "playerUpdate");
+        }
+        if("event".equals(payload.getValue("op", null))) {
+            if("WebSocketClosedEvent".equals(payload.getValue("type", null))) {
+                var reason = payload.getString("reason", null);
+                if(reason == null) {
+                    payload.put("reason", "");
+                }
+            }
+        }
+        return payload;
+    }
+}
@@ -1,30 +1,235 @@
 package andesite.event;
 
 import andesite.player.Player;
+import com.typesafe.config.Config;
+import io.prometheus.client.Gauge;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
+/**
+ * Buffers the events of a closed connection until it's resumed.
+ *
+ * <br>Events are stored encoded, and a player update supersedes the previous buffered update
+ * of the same player, while all other events are kept in order. Events are kept in memory up to
+ * {@code max-memory} bytes, after that they're written to a memory mapped file of up to
+ * {@code max-spill} bytes. Superseded updates in the file are reclaimed by compacting it once
+ * it's full. Events that don't fit in either are dropped.
+ */
 public class EventBuffer {
-    private final Queue<JsonObject> queue = new ConcurrentLinkedQueue<>();
+    private static final Logger log = LoggerFactory.getLogger(EventBuffer.class);
+    private static final Gauge BUFFERED_BYTES = Gauge.build()
+            .namespace("andesite")
+            .name("event_buffer_bytes")
+            .help("Bytes used by buffered events of closed connections")
+            .labelNames("storage")
+            .register();
+    private static final Gauge BUFFERED_EVENTS = Gauge.build()
+            .namespace("andesite")
+            .name("event_buffer_events")
+            .help("Number of buffered events of closed connections")
+            .register();
+    
+    private final Queue<Entry> queue = new ArrayDeque<>();
+    private final Map<String, Entry> lastUpdates = new HashMap<>();
     private final Set<Player> subscriptions;
+    private final long maxMemory;
+    private final long maxSpill;
+    private final String spillDirectory;
+    private FileChannel spillChannel;
+    private MappedByteBuffer spill;
+    private long memoryUsed;
+    private int spillUsed;
+    private int spillSuperseded;
+    private int events;
+    private int superseded;
+    private long dropped;
+    private boolean spillFailed;
+    private boolean closed;
     
-    public EventBuffer(Set<Player> subscriptions) {
+    public EventBuffer(Set<Player> subscriptions, Config config) {
         this.subscriptions = subscriptions;
+        this.maxMemory = config.getBytes("max-memory");
+        this.maxSpill = Math.min(config.getBytes("max-spill"), Integer.MAX_VALUE);
+        this.spillDirectory = config.getIsNull("spill-directory") ? null : config.getString("spill-directory");
     }
     
     public Set<Player> subscriptions() {
         return subscriptions;
     }
     
-    public void empty(Consumer<JsonObject> sink) {
-        queue.forEach(sink);
+    /**
+     * Sends all buffered events, in order, to the provided sink.
+     *
+     * @param sink Sink for the events.
+     */
+    public synchronized void empty(Consumer<EncodedEvent> sink) {
+        if(closed) return;
+        for(var e : queue) {
+            if(e.superseded) continue;
+            sink.accept(new EncodedEvent(new JsonObject(Buffer.buffer(read(e)))));
+        }
+    }
+    
+    public synchronized void offer(EncodedEvent event) {
+        if(closed) return;
+        var payload = event.payload();
+        var data = event.text().getBytes(StandardCharsets.UTF_8);
+        var entry = new Entry(data.length);
+        if(memoryUsed + data.length <= maxMemory) {
+            entry.data = data;
+            memoryUsed += data.length;
+            BUFFERED_BYTES.labels("memory").inc(data.length);
+        } else if(!spillFailed && fitsSpill(data.length) && writeSpill(entry, data)) {
+            BUFFERED_BYTES.labels("spill").inc(data.length);
+        } else {
+            if(dropped++ == 0) {
+                log.warn("Event buffer full, dropping events");
+            }
+            return;
+        }
+        if("player-update".equals(payload.getString("op"))) {
+            var previous = lastUpdates.put(payload.getString("userId") + ":" + payload.getString("guildId"), entry);
+            if(previous != null) {
+                supersede(previous);
+            }
+        }
+        queue.add(entry);
+        events++;
+        BUFFERED_EVENTS.inc();
+    }
+    
+    /**
+     * Releases all buffered events. Must be called once the buffer is no longer used.
+     */
+    public synchronized void close() {
+        if(closed) return;
+        closed = true;
+        BUFFERED_BYTES.labels("memory").dec(memoryUsed);
+        BUFFERED_BYTES.labels("spill").dec(spillUsed);
+        BUFFERED_EVENTS.dec(events);
+        queue.clear();
+        lastUpdates.clear();
+        //the mapping itself is released once the buffer is collected
+        spill = null;
+        if(spillChannel != null) {
+            try {
+                spillChannel.close();
+            } catch(IOException e) {
+                log.error("Error closing event buffer spill file", e);
+            }
+            spillChannel = null;
+        }
+        if(dropped > 0) {
+            log.warn("Dropped {} events due to a full event buffer", dropped);
+        }
+    }
+    
+    private void supersede(Entry entry) {
+        entry.superseded = true;
+        events--;
+        BUFFERED_EVENTS.dec();
+        if(entry.data != null) {
+            memoryUsed -= entry.length;
+            BUFFERED_BYTES.labels("memory").dec(entry.length);
+            entry.data = null;
+        } else if(entry.spillOffset >= 0) {
+            //reclaimed by the next compaction
+            spillSuperseded += entry.length;
+        }
+        //amortized removal of superseded entries from the queue
+        if(++superseded > events) {
+            queue.removeIf(e -> e.superseded);
+            superseded = 0;
+        }
+    }
+    
+    private boolean fitsSpill(int length) {
+        if((long) spillUsed + length <= maxSpill) return true;
+        if((long) spillUsed - spillSuperseded + length > maxSpill) return false;
+        compactSpill();
+        return true;
+    }
+    
+    /**
+     * Moves the spilled events that weren't superseded to the start of the file, releasing the
+     * space used by superseded ones.
+     */
+    private void compactSpill() {
+        var offset = 0;
+        //entries are spilled in queue order, so every entry moves towards the start of the file
+        for(var it = queue.iterator(); it.hasNext(); ) {
+            var e = it.next();
+            if(e.superseded) {
+                it.remove();
+                continue;
+            }
+            if(e.spillOffset < 0) continue;
+            if(e.spillOffset != offset) {
+                var data = read(e);
+                spill.duplicate().position(offset).put(data);
+                e.spillOffset = offset;
+            }
+            offset += e.length;
+        }
+        superseded = 0;
+        BUFFERED_BYTES.labels("spill").dec(spillUsed - offset);
+        spillUsed = offset;
+        spillSuperseded = 0;
+    }
+    
+    private boolean writeSpill(Entry entry, byte[] data) {
+        if(spill == null) {
+            try {
+                var dir = spillDirectory == null ? null : new File(spillDirectory);
+                var file = File.createTempFile("andesite-events-", ".buf", dir).toPath();
+                spillChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+                spill = spillChannel.map(FileChannel.MapMode.READ_WRITE, 0, maxSpill);
+            } catch(IOException e) {
+                log.error("Unable to create event buffer spill file", e);
+                //don't retry creating the file for every event
+                spillFailed = true;
+                return false;
+            }
+        }
+        spill.duplicate().position(spillUsed).put(data);
+        entry.spillOffset = spillUsed;
+        spillUsed += data.length;
+        return true;
+    }
+    
+    private byte[] read(Entry entry) {
+        if(entry.data != null) {
+            return entry.data;
+        }
+        var data = new byte[entry.length];
+        spill.duplicate().position(entry.spillOffset).get(data);
+        return data;
     }
     
-    public void offer(JsonObject payload) {
-        queue.offer(payload);
+    private static class Entry {
+        private final int length;
+        private byte[] data;
+        private int spillOffset = -1;
+        private boolean superseded;
+        
+        private Entry(int length) {
+            this.length = length;
+        }
     }
 }
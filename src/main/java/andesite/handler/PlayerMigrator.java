@@ -0,0 +1,189 @@
+package andesite.handler;
+
+import andesite.Andesite;
+import andesite.util.CborCodec;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Moves players of an user from this node to another one, so nodes can be drained without
+ * interrupting playback.
+ *
+ * <br>Players are {@link RequestHandler#exportPlayer(String, String) exported} and sent to the
+ * {@code /migration/import} route of the target as CBOR batches that fit in its body limit. The
+ * target opens the voice connection with the same session, and the local players are only
+ * destroyed after it acknowledges them, so the audio gap is limited to the voice handshake.
+ */
+class PlayerMigrator {
+    private static final Logger log = LoggerFactory.getLogger(PlayerMigrator.class);
+    /* below the 64KiB body limit, leaving space for the batch wrapper */
+    private static final int MAX_BATCH_SIZE = 48 * 1024;
+    private static final CborCodec.TrackFields PLAYER_TRACKS = CborCodec.TrackFields.of(
+            "track", "mixer.*.track");
+    private static final CborCodec.TrackFields BATCH_TRACKS = CborCodec.TrackFields.of(
+            "players[].track", "players[].mixer.*.track");
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    
+    private final Andesite andesite;
+    private final String userId;
+    private final URI importUri;
+    private final String password;
+    private final JsonArray migrated = new JsonArray();
+    private final JsonArray failed = new JsonArray();
+    
+    private PlayerMigrator(@Nonnull Andesite andesite, @Nonnull String userId,
+                           @Nonnull URI importUri, @Nullable String password) {
+        this.andesite = andesite;
+        this.userId = userId;
+        this.importUri = importUri;
+        this.password = password;
+    }
+    
+    /**
+     * Migrates players to another node.
+     *
+     * @param andesite Andesite instance.
+     * @param userId   User id of the players.
+     * @param request  Migration request, containing the {@code target} base url, its {@code password}
+     *                 and optionally the {@code guilds} to migrate. All players of the user are
+     *                 migrated if no guilds are given.
+     *
+     * @return A future completed with the migrated guilds and the ones that failed.
+     *
+     * @throws IllegalArgumentException If the target is missing or invalid.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static CompletionStage<JsonObject> migrate(@Nonnull Andesite andesite, @Nonnull String userId,
+                                               @Nonnull JsonObject request) {
+        var target = request.getString("target");
+        if(target == null) {
+            throw new IllegalArgumentException("Missing target");
+        }
+        var uri = URI.create(target.endsWith("/") ? target + "migration/import" : target + "/migration/import");
+        if(!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+            throw new IllegalArgumentException("Invalid target " + target);
+        }
+        var migrator = new PlayerMigrator(andesite, userId, uri, request.getString("password"));
+        
+        var guilds = request.getJsonArray("guilds");
+        List<String> guildIds = new ArrayList<>();
+        if(guilds == null) {
+            guildIds.addAll(andesite.playerMap(userId).keySet());
+        } else {
+            for(var g : guilds) {
+                guildIds.add(String.valueOf(g));
+            }
+        }
+        return migrator.run(guildIds);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private CompletionStage<JsonObject> run(@Nonnull List<String> guildIds) {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        var batch = new JsonArray();
+        var batchGuilds = new ArrayList<String>();
+        var batchSize = 0;
+        for(var guildId : guildIds) {
+            var exported = andesite.requestHandler().exportPlayer(userId, guildId);
+            if(exported == null) {
+                fail(guildId, "No player or voice connection");
+                continue;
+            }
+            var size = CborCodec.encode(exported, PLAYER_TRACKS).length();
+            if(size > MAX_BATCH_SIZE) {
+                fail(guildId, "Player state too large");
+                continue;
+            }
+            if(batchSize + size > MAX_BATCH_SIZE) {
+                futures.add(send(batch, batchGuilds));
+                batch = new JsonArray();
+                batchGuilds = new ArrayList<>();
+                batchSize = 0;
+            }
+            batch.add(exported);
+            batchGuilds.add(guildId);
+            batchSize += size;
+        }
+        if(!batch.isEmpty()) {
+            futures.add(send(batch, batchGuilds));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(__ -> {
+                    synchronized(this) {
+                        return new JsonObject()
+                                .put("migrated", migrated.copy())
+                                .put("failed", failed.copy());
+                    }
+                });
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private CompletableFuture<Void> send(@Nonnull JsonArray players, @Nonnull List<String> guildIds) {
+        var builder = HttpRequest.newBuilder(importUri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/cbor")
+                .header("User-Id", userId)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(
+                        CborCodec.encode(new JsonObject().put("players", players), BATCH_TRACKS).getBytes()));
+        if(password != null) {
+            builder.header("Authorization", password);
+        }
+        return CLIENT.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .thenAccept(response -> {
+                    if(response.statusCode() != 200) {
+                        throw new IllegalStateException("Target responded with status " + response.statusCode());
+                    }
+                    handleResponse(Buffer.buffer(response.body()).toJsonObject());
+                })
+                .exceptionally(e -> {
+                    var cause = e.getCause() == null ? e : e.getCause();
+                    log.error("Error migrating players of user {} to {}", userId, importUri, cause);
+                    var message = cause instanceof IOException ? "Unable to reach target" : cause.getMessage();
+                    guildIds.forEach(guildId -> fail(guildId, String.valueOf(message)));
+                    return null;
+                });
+    }
+    
+    private void handleResponse(@Nonnull JsonObject response) {
+        var imported = response.getJsonArray("imported", new JsonArray());
+        for(var guildId : imported) {
+            //the target already took over the voice session, so the connection
+            //closed here no longer plays anything
+            andesite.vertx().runOnContext(__ -> andesite.requestHandler().destroy(userId, String.valueOf(guildId), false));
+            synchronized(this) {
+                migrated.add(guildId);
+            }
+        }
+        var targetFailed = response.getJsonArray("failed", new JsonArray());
+        synchronized(this) {
+            targetFailed.forEach(failed::add);
+        }
+        log.info("Migrated {} players of user {} to {}", imported.size(), userId, importUri);
+    }
+    
+    private synchronized void fail(@Nonnull String guildId, @Nonnull String error) {
+        failed.add(new JsonObject().put("guildId", guildId).put("error", error));
+    }
+}
@@ -0,0 +1,182 @@
+package andesite.handler;
+
+import andesite.event.EncodedEvent;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Per connection handling of player updates.
+ *
+ * <br>Updates for the same player received inside the coalescing window are merged, only the
+ * latest one is sent when the window ends. When deltas are enabled, updates only contain the
+ * keys that changed since the last state sent to the connection, with removed keys set to null,
+ * and a full state is sent every {@code snapshotInterval}.
+ *
+ * <br>Deltas are based on the last state sent, not on one acknowledged by the client. Frames of a
+ * connection arrive in order or not at all, and a resumed connection gets a new coalescer without
+ * any baseline, so the first update of every player after a resume is always a full state.
+ *
+ * <br>Must only be used from the connection's context.
+ */
+class PlayerUpdateCoalescer {
+    private final Map<String, PlayerState> players = new HashMap<>();
+    private final Vertx vertx;
+    private final Consumer<EncodedEvent> eventSink;
+    private final Consumer<JsonObject> payloadSink;
+    private final long snapshotInterval;
+    private long window;
+    private boolean delta;
+    private long timerId = -1;
+    
+    PlayerUpdateCoalescer(@Nonnull Vertx vertx, @Nonnull Consumer<EncodedEvent> eventSink,
+                          @Nonnull Consumer<JsonObject> payloadSink, long window, long snapshotInterval) {
+        this.vertx = vertx;
+        this.eventSink = eventSink;
+        this.payloadSink = payloadSink;
+        this.window = window;
+        this.snapshotInterval = TimeUnit.MILLISECONDS.toNanos(snapshotInterval);
+    }
+    
+    void configure(long window, boolean delta) {
+        if(window <= 0) {
+            flush();
+        }
+        this.window = window;
+        if(this.delta != delta) {
+            //next update for every player must be a full one
+            players.values().forEach(s -> s.baseline = null);
+        }
+        this.delta = delta;
+    }
+    
+    void offer(@Nonnull EncodedEvent event) {
+        var payload = event.payload();
+        var state = state(payload.getString("userId"), payload.getString("guildId"));
+        if(window <= 0) {
+            emit(state, event);
+            return;
+        }
+        state.pending = event;
+        if(timerId == -1) {
+            timerId = vertx.setTimer(window, __ -> {
+                timerId = -1;
+                flush();
+            });
+        }
+    }
+    
+    /**
+     * Records a state sent directly to the connection, eg as a response to an op. Pending updates
+     * for that player are dropped, since they're older than the sent state.
+     */
+    void sent(@Nonnull String userId, @Nonnull String guildId, @Nullable JsonObject sentState) {
+        var state = players.get(key(userId, guildId));
+        if(state == null && (sentState == null || !delta)) return;
+        if(state == null) {
+            state = state(userId, guildId);
+        }
+        state.pending = null;
+        state.baseline = sentState;
+        state.lastFull = System.nanoTime();
+    }
+    
+    void remove(@Nonnull String userId, @Nonnull String guildId) {
+        players.remove(key(userId, guildId));
+    }
+    
+    void close() {
+        if(timerId != -1) {
+            vertx.cancelTimer(timerId);
+            timerId = -1;
+        }
+        players.clear();
+    }
+    
+    private void flush() {
+        for(var state : players.values()) {
+            var pending = state.pending;
+            if(pending != null) {
+                state.pending = null;
+                emit(state, pending);
+            }
+        }
+    }
+    
+    private void emit(@Nonnull PlayerState state, @Nonnull EncodedEvent event) {
+        if(!delta) {
+            eventSink.accept(event);
+            return;
+        }
+        var payload = event.payload();
+        var current = payload.getJsonObject("state");
+        var now = System.nanoTime();
+        if(state.baseline == null || current == null || now - state.lastFull >= snapshotInterval) {
+            eventSink.accept(event);
+            state.baseline = current;
+            state.lastFull = now;
+            return;
+        }
+        payloadSink.accept(new JsonObject()
+                                   .put("op", "player-update")
+                                   .put("guildId", payload.getString("guildId"))
+                                   .put("userId", payload.getString("userId"))
+                                   .put("delta", true)
+                                   .put("state", diff(state.baseline, current)));
+        state.baseline = current;
+    }
+    
+    @Nonnull
+    private PlayerState state(@Nonnull String userId, @Nonnull String guildId) {
+        return players.computeIfAbsent(key(userId, guildId), __ -> new PlayerState());
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static String key(@Nonnull String userId, @Nonnull String guildId) {
+        return userId + ":" + guildId;
+    }
+    
+    /**
+     * Returns the keys of {@code current} that differ from {@code old}, recursing into nested
+     * objects. Keys missing from {@code current} are set to null.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static JsonObject diff(@Nonnull JsonObject old, @Nonnull JsonObject current) {
+        var result = new JsonObject();
+        for(var entry : current) {
+            var key = entry.getKey();
+            var value = entry.getValue();
+            var previous = old.getValue(key);
+            if(value instanceof JsonObject && previous instanceof JsonObject) {
+                var nested = diff((JsonObject) previous, (JsonObject) value);
+                if(!nested.isEmpty()) {
+                    result.put(key, nested);
+                }
+            } else if(!old.containsKey(key) || !Objects.equals(previous, value)) {
+                result.put(key, value);
+            }
+        }
+        for(var key : old.fieldNames()) {
+            if(!current.containsKey(key)) {
+                result.putNull(key);
+            }
+        }
+        return result;
+    }
+    
+    private static class PlayerState {
+        private EncodedEvent pending;
+        private JsonObject baseline;
+        private long lastFull;
+    }
+}
@@ -2,8 +2,12 @@ package andesite.handler;
 
 import andesite.Andesite;
 import andesite.Version;
+import andesite.player.AndesitePlayer;
 import andesite.player.BasePlayer;
 import andesite.player.FrameLossCounter;
+import andesite.player.Player;
+import andesite.util.LoadResultCache;
+import andesite.util.LongPairMap;
 import andesite.util.RequestUtils;
 import andesite.util.metadata.MetadataEntry;
 import andesite.util.metadata.NamePartJoiner;
@@ -32,13 +36,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class RequestHandler implements AndesiteRequestHandler {
     private static final Logger log = LoggerFactory.getLogger(RequestHandler.class);
+    /* set while applying a batch, which is logged once instead of once per operation */
+    private static final ThreadLocal<Boolean> IN_BATCH = ThreadLocal.withInitial(() -> false);
     private static final Map<List<String>, Function<Andesite, MetadataEntry>> METADATA_FIELDS = Map.of(
             List.of("version"), __ -> MetadataEntry.version(Version.VERSION),
             List.of("version", "major"), __ -> MetadataEntry.string(Version.VERSION_MAJOR),
@@ -53,8 +61,13 @@ public class RequestHandler implements AndesiteRequestHandler {
     );
     private static final Class<?> INTERNAL_BEAN_CLASS;
     private static final BiConsumer<AudioPlayer, AudioTrackEndReason> STOP_PLAYER_WITH_REASON;
+    /* how long voice states of guilds without a player are kept */
+    private static final long VOICE_STATE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
     
     private final Andesite andesite;
+    private final LoadResultCache loadResultCache;
+    /* last voice server update of every player, handed to the target node on migration */
+    private final LongPairMap<JsonObject> voiceStates = new LongPairMap<>();
     
     static {
         Class<?> c;
@@ -82,6 +95,10 @@ public class RequestHandler implements AndesiteRequestHandler {
     
     public RequestHandler(@Nonnull Andesite andesite) {
         this.andesite = andesite;
+        this.loadResultCache = new LoadResultCache(andesite.config().getConfig("andesite.track-cache"));
+        andesite.nodeStatsAggregator().configure(andesite.vertx(),
+                andesite.config().getDuration("andesite.stats.refresh-interval", TimeUnit.MILLISECONDS),
+                this::buildNodeStats, this::buildNodeStatsForLavalink);
     }
     
     @Nonnull
@@ -95,7 +112,7 @@ public class RequestHandler implements AndesiteRequestHandler {
     
     @Override
     public void provideVoiceServerUpdate(@Nonnull String userId, @Nonnull JsonObject json) {
-        log.info("Handling voice server update for user {} and payload {}", userId, json);
+        logOperation("Handling voice server update for user {} and payload {}", userId, json);
         
         var sessionId = json.getString("sessionId");
         var guildId = json.getString("guildId");
@@ -116,12 +133,197 @@ public class RequestHandler implements AndesiteRequestHandler {
         
         andesite.audioHandler()
                 .handleVoiceUpdate(userId, guildId, sessionId, endpoint, token);
+        storeVoiceState(userId, guildId, sessionId, endpoint, token);
+        
+        var player = andesite.getExistingPlayer(userId, guildId);
+        if(player == null || (player.audioPlayer().getPlayingTrack() == null && !player.isBroadcasting() &&
+                                      player.mixerState() == AndesitePlayer.MixerState.DISABLED)) {
+            var state = andesite.playerJournal().takePending(Long.parseUnsignedLong(userId),
+                    Long.parseUnsignedLong(guildId));
+            if(state != null) {
+                log.info("Restoring player for user {} in guild {} from the journal", userId, guildId);
+                restore(userId, guildId, state);
+            }
+        }
+    }
+    
+    /**
+     * Exports a player to be moved to another node. The returned object contains the
+     * {@link Player#encodeSnapshot() snapshot} of the player, its guild id and the last voice server
+     * update received for it, and can be given to {@link #importPlayer(String, JsonObject)} on the
+     * target node.
+     *
+     * @param userId  User id of the player.
+     * @param guildId Guild id of the player.
+     *
+     * @return The exported player, or null if there's no player or voice connection for the guild.
+     */
+    @Nullable
+    @CheckReturnValue
+    public JsonObject exportPlayer(@Nonnull String userId, @Nonnull String guildId) {
+        var player = andesite.getExistingPlayer(userId, guildId);
+        if(player == null) return null;
+        var voice = voiceStates.get(player.userIdLong(), player.guildIdLong());
+        if(voice == null) return null;
+        return player.encodeSnapshot()
+                .put("guildId", player.guildId())
+                .put("voice", voice.copy());
+    }
+    
+    /**
+     * Recreates a player exported by another node. The voice connection is opened with the same
+     * session as the exporting node, which makes discord move the connection here, and the state
+     * is then replayed like a journaled one.
+     *
+     * @param userId   User id of the player.
+     * @param exported Player returned by {@link #exportPlayer(String, String)}.
+     *
+     * @throws IllegalArgumentException If the exported player is invalid or there's already a player
+     *                                  for the guild.
+     */
+    public void importPlayer(@Nonnull String userId, @Nonnull JsonObject exported) {
+        var guildId = exported.getString("guildId");
+        var voice = exported.getJsonObject("voice");
+        if(guildId == null || voice == null) {
+            throw new IllegalArgumentException("Missing guild id or voice state");
+        }
+        if(andesite.getExistingPlayer(userId, guildId) != null) {
+            throw new IllegalArgumentException("Player already exists");
+        }
+        var sessionId = voice.getString("sessionId");
+        var endpoint = voice.getString("endpoint");
+        var token = voice.getString("token");
+        if(sessionId == null || endpoint == null || token == null) {
+            throw new IllegalArgumentException("Incomplete voice state");
+        }
+        //validated before taking over the voice session, which stops playback on the exporting node
+        checkTrack(exported.getString("track"));
+        var mixer = exported.getJsonObject("mixer");
+        if(mixer != null) {
+            for(var key : mixer.fieldNames()) {
+                checkTrack(mixer.getJsonObject(key).getString("track"));
+            }
+        }
+        logOperation("Importing player for user {} in guild {}", userId, guildId);
+        andesite.audioHandler()
+                .handleVoiceUpdate(userId, guildId, sessionId, endpoint, token);
+        storeVoiceState(userId, guildId, sessionId, endpoint, token);
+        try {
+            //the clocks of both nodes might differ, the transfer time is small enough to be ignored
+            restore(userId, guildId, exported.copy().put("savedAt", System.currentTimeMillis()));
+        } catch(RuntimeException e) {
+            destroy(userId, guildId, false);
+            throw e;
+        }
+    }
+    
+    private void checkTrack(@Nullable String encoded) {
+        if(encoded == null) return;
+        AudioTrack track;
+        try {
+            track = RequestUtils.decodeTrack(andesite.audioPlayerManager(), encoded);
+        } catch(RuntimeException | AssertionError e) {
+            //corrupted tracks fail with an assertion error
+            track = null;
+        }
+        if(track == null) {
+            throw new IllegalArgumentException("Unable to decode track");
+        }
+    }
+    
+    /**
+     * Forgets the voice state kept for exporting a player. Called when the player is removed.
+     *
+     * @param userId  User id of the player.
+     * @param guildId Guild id of the player.
+     */
+    public void clearVoiceState(long userId, long guildId) {
+        voiceStates.remove(userId, guildId);
+    }
+    
+    private void storeVoiceState(@Nonnull String userId, @Nonnull String guildId, @Nonnull String sessionId,
+                                 @Nonnull String endpoint, @Nonnull String token) {
+        var uid = Long.parseUnsignedLong(userId);
+        var gid = Long.parseUnsignedLong(guildId);
+        var state = new JsonObject()
+                .put("sessionId", sessionId)
+                .put("endpoint", endpoint)
+                .put("token", token);
+        voiceStates.put(uid, gid, state);
+        if(andesite.getExistingPlayer(uid, gid) != null) return;
+        //states of guilds that never get a player would otherwise be kept forever
+        andesite.vertx().setTimer(VOICE_STATE_TIMEOUT, __ -> {
+            if(andesite.getExistingPlayer(uid, gid) == null) {
+                voiceStates.remove(uid, gid, state);
+            }
+        });
+    }
+    
+    /**
+     * Restores a player from a snapshot, saved in the journal before a restart or exported by
+     * another node, by replaying it through the regular operations. Positions are advanced by the
+     * time elapsed since it was saved, and tracks that would have ended in the meantime are skipped.
+     */
+    private void restore(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject state) {
+        var elapsed = Math.max(0, System.currentTimeMillis() - state.getLong("savedAt", 0L));
+        var paused = state.getBoolean("paused", false);
+        var start = restoredPosition(state, paused ? 0 : elapsed);
+        if(start >= 0) {
+            play(userId, guildId, new JsonObject()
+                    .put("track", state.getString("track"))
+                    .put("start", start)
+                    .put("pause", paused)
+                    .put("volume", state.getInteger("volume", 100)));
+        } else {
+            andesite.getPlayer(userId, guildId).setVolume(state.getInteger("volume", 100));
+        }
+        var filters = state.getJsonObject("filters");
+        if(filters != null) {
+            filters(userId, guildId, filters);
+        }
+        var mixer = state.getJsonObject("mixer");
+        if(mixer != null && !mixer.isEmpty()) {
+            var players = new JsonObject();
+            for(var key : mixer.fieldNames()) {
+                var p = mixer.getJsonObject(key);
+                var pausedMixer = p.getBoolean("paused", false);
+                var startMixer = restoredPosition(p, pausedMixer ? 0 : elapsed);
+                if(startMixer < 0) continue;
+                players.put(key, new JsonObject()
+                        .put("track", p.getString("track"))
+                        .put("start", startMixer)
+                        .put("pause", pausedMixer)
+                        .put("volume", p.getInteger("volume", 100))
+                        .put("filters", p.getJsonObject("filters", new JsonObject())));
+            }
+            mixer(userId, guildId, new JsonObject()
+                    .put("enable", state.getBoolean("mixerEnabled", false))
+                    .put("players", players));
+        }
+    }
+    
+    /**
+     * Returns the position to resume a journaled track at, or -1 if there's no track or it
+     * would have ended already.
+     */
+    @CheckReturnValue
+    private long restoredPosition(@Nonnull JsonObject state, long elapsed) {
+        var encoded = state.getString("track");
+        if(encoded == null) return -1;
+        var track = RequestUtils.decodeTrack(andesite.audioPlayerManager(), encoded);
+        if(track == null) return -1;
+        var saved = state.getValue("position");
+        var position = (saved instanceof Number ? ((Number) saved).longValue() : 0) + elapsed;
+        if(!track.getInfo().isStream && position >= track.getDuration()) {
+            return -1;
+        }
+        return track.getInfo().isStream ? 0 : position;
     }
     
     @Nullable
     @Override
     public JsonObject player(@Nonnull String userId, @Nonnull String guildId) {
-        log.info("Fetching player info for user {} in guild {}", userId, guildId);
+        logOperation("Fetching player info for user {} in guild {}", userId, guildId);
         var player = andesite.getExistingPlayer(userId, guildId);
         return player == null ? null : player.encodeState();
     }
@@ -136,9 +338,11 @@ public class RequestHandler implements AndesiteRequestHandler {
     @Nonnull
     @Override
     public JsonObject play(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
-        log.info("Playing track for user {} in guild {} with payload {}", userId, guildId, payload);
+        logOperation("Playing track for user {} in guild {} with payload {}", userId, guildId, payload);
         var player = andesite.getPlayer(userId, guildId);
-        if(payload.getBoolean("noReplace", false) && player.audioPlayer().getPlayingTrack() != null) {
+        if(payload.getBoolean("noReplace", false) &&
+                   (player.audioPlayer().getPlayingTrack() != null || player.isBroadcasting())) {
+            andesite.playerJournal().changed(player);
             return player.encodeState();
         }
         var track = RequestUtils.decodeTrack(andesite.audioPlayerManager(), payload.getString("track"));
@@ -147,25 +351,34 @@ public class RequestHandler implements AndesiteRequestHandler {
                     payload.getString("track"));
         }
         var start = asLong(payload.getValue("start", payload.getValue("startTime")), 0);
+        if(track != null && canBroadcast(player, payload)) {
+            andesite.broadcastManager().join(player, track, start);
+            andesite.audioHandler().setProvider(player.userIdLong(), player.guildIdLong(), player);
+            andesite.playerJournal().changed(player);
+            return player.encodeState();
+        }
+        player.leaveBroadcast(false);
         if(track != null && start != 0) {
             track.setPosition(start);
         }
         setEndMarker(player.audioPlayer(), track, payload);
         
         player.audioPlayer().setPaused(payload.getBoolean("pause", player.audioPlayer().isPaused()));
-        player.audioPlayer().setVolume(payload.getInteger("volume", player.audioPlayer().getVolume()));
+        player.setVolume(payload.getInteger("volume", player.volume()));
         player.audioPlayer().startTrack(track, false);
         
-        andesite.audioHandler().setProvider(userId, guildId, player);
+        andesite.audioHandler().setProvider(player.userIdLong(), player.guildIdLong(), player);
         
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nonnull
     @Override
     public JsonObject mixer(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
-        log.info("Configuring mixer for user {} in guild {} with payload {}", userId, guildId, payload);
+        logOperation("Configuring mixer for user {} in guild {} with payload {}", userId, guildId, payload);
         var player = andesite.getPlayer(userId, guildId);
+        player.leaveBroadcast(true);
         var mixer = player.mixer();
         
         //check if field present
@@ -185,7 +398,7 @@ public class RequestHandler implements AndesiteRequestHandler {
             var mixerPlayer = mixer.getPlayer(key);
             var p = mixerPlayer.audioPlayer();
             p.setPaused(config.getBoolean("pause", p.isPaused()));
-            p.setVolume(config.getInteger("volume", p.getVolume()));
+            mixerPlayer.setVolume(config.getInteger("volume", mixerPlayer.volume()));
             AudioTrack track;
             if(config.containsKey("track")) {
                 if(config.getValue("track") == null) {
@@ -197,7 +410,7 @@ public class RequestHandler implements AndesiteRequestHandler {
                         track.setPosition(start);
                     }
                 }
-                
+            
             } else {
                 track = p.getPlayingTrack();
             }
@@ -214,61 +427,73 @@ public class RequestHandler implements AndesiteRequestHandler {
             }
         });
         
-        andesite.audioHandler().setProvider(userId, guildId, player);
+        andesite.audioHandler().setProvider(player.userIdLong(), player.guildIdLong(), player);
         
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nonnull
     @Override
     public JsonObject stop(@Nonnull String userId, @Nonnull String guildId) {
-        log.info("Stopping player for user {} in guild {}", userId, guildId);
+        logOperation("Stopping player for user {} in guild {}", userId, guildId);
         var player = andesite.getPlayer(userId, guildId);
+        player.leaveBroadcast(false);
         player.audioPlayer().stopTrack();
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nonnull
     @Override
     public JsonObject pause(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
-        log.info("Updating pause state for user {} in guild {} with payload {}", userId, guildId, payload);
+        logOperation("Updating pause state for user {} in guild {} with payload {}", userId, guildId, payload);
         var player = andesite.getPlayer(userId, guildId);
+        player.leaveBroadcast(true);
         player.audioPlayer().setPaused(payload.getBoolean("pause", false));
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nonnull
     @Override
     public JsonObject seek(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
-        log.info("Seeking for user {} in guild {} with payload {}", userId, guildId, payload);
+        logOperation("Seeking for user {} in guild {} with payload {}", userId, guildId, payload);
         var player = andesite.getPlayer(userId, guildId);
+        player.leaveBroadcast(true);
         player.seek(asLong(payload.getValue("position"), 0L));
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nonnull
     @Override
     public JsonObject volume(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
-        log.info("Updating volume for user {} in guild {} with payload {}", userId, guildId, payload);
+        logOperation("Updating volume for user {} in guild {} with payload {}", userId, guildId, payload);
         var player = andesite.getPlayer(userId, guildId);
-        player.audioPlayer().setVolume(payload.getInteger("volume", 100));
+        player.leaveBroadcast(true);
+        player.setVolume(payload.getInteger("volume", 100));
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nonnull
     @Override
     public JsonObject filters(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
-        log.info("Updating filters for user {} in guild {} with payload {}", userId, guildId, payload);
+        logOperation("Updating filters for user {} in guild {} with payload {}", userId, guildId, payload);
         var player = andesite.getPlayer(userId, guildId);
+        player.leaveBroadcast(true);
         updateFilters(player, payload);
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nonnull
     @Override
     public JsonObject update(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
-        log.info("Updating player for user {} in guild {} and payload {}", userId, guildId, payload);
+        logOperation("Updating player for user {} in guild {} and payload {}", userId, guildId, payload);
         var player = andesite.getPlayer(userId, guildId);
+        player.leaveBroadcast(true);
         if(payload.containsKey("pause")) {
             player.audioPlayer().setPaused(payload.getBoolean("pause"));
         }
@@ -276,24 +501,28 @@ public class RequestHandler implements AndesiteRequestHandler {
             player.seek(asLong(payload.getValue("position"), 0));
         }
         if(payload.containsKey("volume")) {
-            player.audioPlayer().setVolume(payload.getInteger("volume"));
+            player.setVolume(payload.getInteger("volume"));
         }
         if(payload.containsKey("filters")) {
             updateFilters(player, payload.getJsonObject("filters"));
         }
+        andesite.playerJournal().changed(player);
         return player.encodeState();
     }
     
     @Nullable
     @Override
     public JsonObject destroy(@Nonnull String userId, @Nonnull String guildId, boolean cleanup) {
-        log.info("Destroying player for user {} in guild {}", userId, guildId);
-        var player = andesite.removePlayer(userId, guildId);
+        logOperation("Destroying player for user {} in guild {}", userId, guildId);
+        var uid = Long.parseUnsignedLong(userId);
+        var gid = Long.parseUnsignedLong(guildId);
+        var player = andesite.removePlayer(uid, gid);
         if(player != null) {
             player.onDestroy(cleanup);
         }
+        voiceStates.remove(uid, gid);
         //will call close()
-        andesite.audioHandler().closeConnection(userId, guildId);
+        andesite.audioHandler().closeConnection(uid, gid);
         return player == null ? null : player.encodeState();
     }
     
@@ -301,8 +530,15 @@ public class RequestHandler implements AndesiteRequestHandler {
     @CheckReturnValue
     @Override
     public CompletionStage<JsonObject> resolveTracks(@Nonnull String identifier) {
+        return loadResultCache.load(resolveIdentifier(identifier),
+                id -> andesite.trackLoadLimiter().load(id, this::loadItem));
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private CompletionStage<JsonObject> loadItem(@Nonnull String identifier) {
         var future = new CompletableFuture<JsonObject>();
-        andesite.audioPlayerManager().loadItem(resolveIdentifier(identifier),
+        andesite.audioPlayerManager().loadItem(identifier,
                 new AudioLoadResultHandler() {
                     @Override
                     public void trackLoaded(AudioTrack track) {
@@ -363,20 +599,47 @@ public class RequestHandler implements AndesiteRequestHandler {
     @CheckReturnValue
     @Override
     public JsonObject nodeStats() {
+        return andesite.nodeStatsAggregator().nodeStats();
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    @Override
+    public JsonObject nodeStatsForLavalink() {
+        return andesite.nodeStatsAggregator().lavalinkStats();
+    }
+    
+    //called on a worker thread when the cached stats are too old, and once by the first read
+    @Nonnull
+    @CheckReturnValue
+    private JsonObject buildNodeStats() {
         var root = new JsonObject();
         
-        var playerStats = andesite.allPlayers().reduce(new int[2], (ints, player) -> {
-            ints[0]++;
-            if(player.isPlaying()) ints[1]++;
-            return ints;
-        }, (ints1, ints2) -> {
-            ints1[0] += ints2[0];
-            ints1[1] += ints2[1];
-            return ints1;
-        });
+        var stats = andesite.nodeStatsAggregator();
         root.put("players", new JsonObject()
-                .put("total", playerStats[0])
-                .put("playing", playerStats[1]));
+                .put("total", andesite.playerCount())
+                .put("playing", stats.playingPlayers()));
+        
+        var buffers = andesite.frameBufferBudget();
+        root.put("frameBuffers", new JsonObject()
+                .put("adaptive", buffers.enabled())
+                .put("budget", buffers.budget())
+                .put("used", buffers.usedBytes())
+                .put("players", buffers.bufferingPlayers()));
+        
+        var loads = new JsonObject();
+        for(var source : andesite.trackLoadLimiter().sources()) {
+            loads.put(source.name(), new JsonObject()
+                    .put("active", source.active())
+                    .put("queued", source.queued()));
+        }
+        root.put("trackLoads", loads);
+        
+        var pool = andesite.bufferPool();
+        root.put("bufferPool", new JsonObject()
+                .put("reserved", pool.reservedBytes())
+                .put("leased", pool.leasedBytes())
+                .put("leasedBuffers", pool.leasedBuffers()));
         
         var runtime = ManagementFactory.getRuntimeMXBean();
         var version = Runtime.version();
@@ -493,7 +756,8 @@ public class RequestHandler implements AndesiteRequestHandler {
                         .reduce(new JsonArray(), JsonArray::add, JsonArray::addAll))
         ).reduce(new JsonArray(), JsonArray::add, JsonArray::addAll));
         
-        root.put("frameStats", andesite.allPlayers().reduce(new JsonArray(), (array, player) -> {
+        var frameStats = new JsonArray();
+        andesite.forEachPlayer(player -> {
             if(player.mixerState().isUsingMixer()) {
                 //average these values from the players
                 var count = 0;
@@ -503,12 +767,12 @@ public class RequestHandler implements AndesiteRequestHandler {
                     var counter = p.frameLossCounter();
                     if(counter.isDataUsable()) {
                         count++;
-                        success += counter.lastMinuteSuccess().sum();
-                        loss += counter.lastMinuteLoss().sum();
+                        success += counter.lastMinuteSuccessSum();
+                        loss += counter.lastMinuteLossSum();
                     }
                 }
                 if(count > 0) {
-                    array.add(new JsonObject()
+                    frameStats.add(new JsonObject()
                             .put("user", player.userId())
                             .put("guild", player.guildId())
                             .put("success", success / count)
@@ -518,37 +782,28 @@ public class RequestHandler implements AndesiteRequestHandler {
             } else {
                 var counter = player.frameLossCounter();
                 if(counter.isDataUsable()) {
-                    array.add(new JsonObject()
+                    frameStats.add(new JsonObject()
                             .put("user", player.userId())
                             .put("guild", player.guildId())
-                            .put("success", counter.lastMinuteSuccess().sum())
-                            .put("loss", counter.lastMinuteLoss().sum())
+                            .put("success", counter.lastMinuteSuccessSum())
+                            .put("loss", counter.lastMinuteLossSum())
                     );
                 }
             }
-            return array;
-        }, JsonArray::addAll));
+        });
+        root.put("frameStats", frameStats);
         
         return root;
     }
     
     @Nonnull
     @CheckReturnValue
-    @Override
-    public JsonObject nodeStatsForLavalink() {
+    private JsonObject buildNodeStatsForLavalink() {
         var root = new JsonObject();
         
-        var playerStats = andesite.allPlayers().reduce(new int[2], (ints, player) -> {
-            ints[0]++;
-            if(player.isPlaying()) ints[1]++;
-            return ints;
-        }, (ints1, ints2) -> {
-            ints1[0] += ints2[0];
-            ints1[1] += ints2[1];
-            return ints1;
-        });
-        root.put("players", playerStats[0])
-                .put("playingPlayers", playerStats[1])
+        var stats = andesite.nodeStatsAggregator();
+        root.put("players", andesite.playerCount())
+                .put("playingPlayers", stats.playingPlayers())
                 .put("uptime", ManagementFactory.getRuntimeMXBean().getUptime());
         
         var memory = ManagementFactory.getMemoryMXBean();
@@ -577,43 +832,11 @@ public class RequestHandler implements AndesiteRequestHandler {
                 .put("lavalinkLoad", load)
         );
         
-        var frameStats = new int[3];
-        
-        andesite.allPlayers().forEach(player -> {
-            if(player.mixerState().isUsingMixer()) {
-                //average these values from the players
-                var count = 0;
-                var success = 0;
-                var loss = 0;
-                for(var p : player.mixer().players().values()) {
-                    var counter = p.frameLossCounter();
-                    if(counter.isDataUsable()) {
-                        count++;
-                        success += counter.lastMinuteSuccess().sum();
-                        loss += counter.lastMinuteLoss().sum();
-                    }
-                }
-                if(count > 0) {
-                    frameStats[0]++;
-                    frameStats[1] += success / count;
-                    frameStats[2] += loss / count;
-                }
-            } else {
-                var counter = player.frameLossCounter();
-                if(counter.isDataUsable()) {
-                    frameStats[0]++;
-                    frameStats[1] += counter.lastMinuteSuccess().sum();
-                    frameStats[2] += counter.lastMinuteLoss().sum();
-                }
-            }
-        });
-        
-        
-        int players = frameStats[0];
-        int totalSent = frameStats[1];
-        int totalLost = frameStats[2];
+        int players = stats.framePlayers();
+        long totalSent = stats.frameSent();
+        long totalLost = stats.frameNulled();
         
-        int totalDeficit = players * FrameLossCounter.EXPECTED_PACKET_COUNT_PER_MIN
+        long totalDeficit = (long) players * FrameLossCounter.EXPECTED_PACKET_COUNT_PER_MIN
                 - (totalSent + totalLost);
         
         // We can't divide by 0
@@ -628,6 +851,115 @@ public class RequestHandler implements AndesiteRequestHandler {
         return root;
     }
     
+    /**
+     * Returns whether or not a play request can be served from a shared broadcast. Only plain
+     * playback is shared: no filters, no mixer, no end marker, not paused and default volume,
+     * since all of those are applied per player.
+     */
+    @CheckReturnValue
+    private boolean canBroadcast(@Nonnull Player player, @Nonnull JsonObject payload) {
+        return andesite.broadcastManager().enabled()
+                       && payload.getBoolean("broadcast", false)
+                       && !player.filterConfig().isEnabled()
+                       && player.mixerState() == AndesitePlayer.MixerState.DISABLED
+                       && asLong(payload.getValue("end", payload.getValue("endTime")), 0) == 0
+                       && !payload.getBoolean("pause", player.audioPlayer().isPaused())
+                       && payload.getInteger("volume", player.volume()) == 100;
+    }
+    
+    /**
+     * Applies a list of operations, possibly across many guilds. Each operation is an object with
+     * an {@code op} key, a {@code guildId} and optionally an {@code userId}, plus the same fields
+     * as the equivalent websocket payload. A failing operation doesn't stop the following ones.
+     *
+     * @param userId        Default user id, used by operations without an {@code userId}.
+     * @param operations    Operations to apply, in order.
+     * @param errorsOnly    If true, only failed operations are included in the result.
+     * @param customHandler Called with each operation before it's applied, returning true if it was
+     *                      handled by a plugin, in which case it has a null result. May be null.
+     *
+     * @return If {@code errorsOnly} is false, an array with one element per operation, containing the
+     * resulting player state, null if there's no state, or an object with an {@code error} key.
+     * Otherwise, an array of objects with the {@code index} and {@code error} of failed operations.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public JsonArray batch(@Nonnull String userId, @Nonnull JsonArray operations, boolean errorsOnly,
+                           @Nullable Predicate<JsonObject> customHandler) {
+        log.info("Applying batch of {} operations for user {}", operations.size(), userId);
+        var results = new JsonArray();
+        IN_BATCH.set(true);
+        try {
+            for(var i = 0; i < operations.size(); i++) {
+                try {
+                    var operation = operations.getJsonObject(i);
+                    var handled = operation != null && customHandler != null && customHandler.test(operation);
+                    var state = handled ? null : applyOperation(userId, operation);
+                    if(!errorsOnly) {
+                        if(state == null) {
+                            results.addNull();
+                        } else {
+                            results.add(state);
+                        }
+                    }
+                } catch(Exception e) {
+                    log.debug("Batch operation {} failed", i, e);
+                    var error = RequestUtils.encodeThrowableShort(e);
+                    results.add(errorsOnly ? new JsonObject().put("index", i).put("error", error) :
+                                        new JsonObject().put("error", error));
+                }
+            }
+        } finally {
+            IN_BATCH.set(false);
+        }
+        return results;
+    }
+    
+    @Nullable
+    private JsonObject applyOperation(@Nonnull String defaultUserId, @Nullable JsonObject payload) {
+        if(payload == null) {
+            throw new IllegalArgumentException("Null operation provided");
+        }
+        var op = payload.getString("op", null);
+        var userId = payload.getString("userId", defaultUserId);
+        var guildId = payload.getString("guildId");
+        if(op == null) {
+            throw new IllegalArgumentException("Null op provided");
+        }
+        if(guildId == null) {
+            throw new IllegalArgumentException("Null guild id provided");
+        }
+        return switch(op) {
+            case "voice-server-update", "voiceUpdate" -> {
+                provideVoiceServerUpdate(userId, payload);
+                yield null;
+            }
+            case "get-player" -> player(userId, guildId);
+            case "mixer" -> mixer(userId, guildId, payload);
+            case "filters" -> filters(userId, guildId, payload);
+            case "equalizer" -> equalizer(userId, guildId, payload);
+            case "play" -> play(userId, guildId, payload);
+            case "stop" -> stop(userId, guildId);
+            case "pause" -> pause(userId, guildId, payload);
+            case "seek" -> seek(userId, guildId, payload);
+            case "volume" -> volume(userId, guildId, payload);
+            case "update" -> update(userId, guildId, payload);
+            case "destroy" -> {
+                var json = destroy(userId, guildId, false);
+                yield json == null ? null : json.put("destroyed", true);
+            }
+            default -> throw new IllegalArgumentException("Unsupported batch op " + op);
+        };
+    }
+    
+    private static void logOperation(@Nonnull String format, Object... args) {
+        if(IN_BATCH.get()) {
+            log.debug(format, args);
+        } else {
+            log.info(format, args);
+        }
+    }
+    
     //lavalink compat
     @Nonnull
     public JsonObject equalizer(@Nonnull String userId, @Nonnull String guildId, @Nonnull JsonObject payload) {
@@ -702,7 +1034,7 @@ public class RequestHandler implements AndesiteRequestHandler {
             }
             volumeConfig.setVolume(volume);
         }
-        player.audioPlayer().setFilterFactory(filterConfig.factory());
+        filterConfig.apply(player.audioPlayer());
     }
     
     @Nullable
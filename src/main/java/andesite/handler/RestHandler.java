@@ -2,6 +2,7 @@ package andesite.handler;
 
 import andesite.Andesite;
 import andesite.NodeState;
+import andesite.util.CborCodec;
 import andesite.util.MemoryBodyHandler;
 import andesite.util.RequestUtils;
 import andesite.util.metadata.NamePartJoiner;
@@ -22,6 +23,7 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Set;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
 
 public class RestHandler {
@@ -29,7 +31,7 @@ public class RestHandler {
     
     public static boolean setup(@Nonnull Andesite andesite) {
         var config = andesite.config().getConfig("andesite");
-    
+        
         var enableRest = config.getBoolean("transport.http.rest");
         var enableWs = config.getBoolean("transport.http.ws");
         var enablePrometheus = config.getBoolean("prometheus.enabled");
@@ -137,6 +139,79 @@ public class RestHandler {
         }
         
         if(enableRest) {
+            router.post("/players/batch").handler(context -> {
+                var body = context.getBodyAsJson();
+                var userId = context.<String>get("user-id");
+                var operations = body.getJsonArray("ops", new JsonArray());
+                //the user id is authenticated for the whole request, operations can't act as another user
+                for(var operation : operations) {
+                    if(operation instanceof JsonObject && ((JsonObject) operation).containsKey("userId")
+                            && !userId.equals(((JsonObject) operation).getValue("userId"))) {
+                        error(context, 400, "Batch operations can't override the user id");
+                        return;
+                    }
+                }
+                //the raw http hook of plugins already saw the whole request
+                var res = andesite.requestHandler().batch(userId, operations,
+                        body.getBoolean("errorsOnly", false), null);
+                context.response().end(res.toBuffer());
+            });
+            
+            router.post("/migration/export").handler(context -> {
+                CompletionStage<JsonObject> migration;
+                try {
+                    migration = PlayerMigrator.migrate(andesite, context.get("user-id"), context.getBodyAsJson());
+                } catch(IllegalArgumentException e) {
+                    error(context, 400, e.getMessage());
+                    return;
+                }
+                //completed by the http client threads, so hop back to the context of the request
+                var ctx = context.vertx().getOrCreateContext();
+                migration.whenComplete((res, e) -> ctx.runOnContext(__ -> {
+                    if(e != null) {
+                        context.fail(e);
+                    } else {
+                        context.response().end(res.toBuffer());
+                    }
+                }));
+            });
+            
+            router.post("/migration/import").handler(context -> {
+                JsonObject body;
+                try {
+                    var contentType = context.request().getHeader("Content-Type");
+                    body = contentType != null && contentType.startsWith("application/cbor") ?
+                            CborCodec.decode(context.getBody()) : context.getBodyAsJson();
+                } catch(IOException e) {
+                    error(context, 400, "Invalid body");
+                    return;
+                }
+                var imported = new JsonArray();
+                var failed = new JsonArray();
+                for(var p : body.getJsonArray("players", new JsonArray())) {
+                    if(!(p instanceof JsonObject)) {
+                        failed.add(new JsonObject()
+                                .putNull("guildId")
+                                .put("error", "Invalid player entry"));
+                        continue;
+                    }
+                    var player = (JsonObject) p;
+                    try {
+                        andesite.requestHandler().importPlayer(context.get("user-id"), player);
+                        imported.add(player.getString("guildId"));
+                    } catch(Exception e) {
+                        log.error("Error importing player", e);
+                        failed.add(new JsonObject()
+                                .put("guildId", player.getString("guildId"))
+                                .put("error", String.valueOf(e.getMessage())));
+                    }
+                }
+                context.response().end(new JsonObject()
+                        .put("imported", imported)
+                        .put("failed", failed)
+                        .toBuffer());
+            });
+            
             router.post("/player/voice-server-update").handler(context -> {
                 andesite.requestHandler().provideVoiceServerUpdate(context.get("user-id"), context.getBodyAsJson());
                 context.response().setStatusCode(204).setStatusMessage("No content").end();
@@ -201,10 +276,10 @@ public class RestHandler {
         }
         
         router.route().handler(context -> error(context, 404, "Not found"));
-    
+        
         var address = config.getString("transport.http.bind-address");
         var port = config.getInt("transport.http.port");
-    
+        
         log.info("Starting HTTP server on port {}:{}", address, port);
         
         var latch = new CountDownLatch(1);
@@ -3,7 +3,9 @@ package andesite.handler;
 import andesite.Andesite;
 import andesite.NodeState;
 import andesite.event.AndesiteEventListener;
+import andesite.event.EncodedEvent;
 import andesite.player.Player;
+import andesite.util.CborCodec;
 import andesite.util.metadata.MetadataEntry;
 import andesite.util.metadata.NamePartJoiner;
 import io.vertx.core.Context;
@@ -24,6 +26,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class WebSocketHandler {
     private static final Set<String> NEEDS_USER_AND_GUILD = Set.of(
@@ -34,6 +37,9 @@ public class WebSocketHandler {
             "destroy"
     );
     
+    private static final String BINARY_PROTOCOL_NAME = "cbor";
+    private static final String BINARY_PROTOCOL = "andesite-" + BINARY_PROTOCOL_NAME;
+    
     private static final Logger log = LoggerFactory.getLogger(WebSocketHandler.class);
     
     public static void setup(@Nonnull Andesite andesite, @Nonnull Router router) {
@@ -51,20 +57,21 @@ public class WebSocketHandler {
             if("websocket".equalsIgnoreCase(req.getHeader("upgrade"))) {
                 var id = andesite.nextConnectionId();
                 context.response().putHeader("Andesite-Connection-Id", String.valueOf(id));
+                var llQuery = context.queryParam("lavalink");
+                var lavalinkConnection = lavalinkRoute
+                                                 || "lavalink".equalsIgnoreCase(req.getHeader("Andesite-Compat"))
+                                                 || llQuery != null && !llQuery.isEmpty();
+                var binaryConnection = !lavalinkConnection && negotiateBinary(context);
                 req.toWebSocket(res -> {
                     if(res.failed()) {
                         return;
                     }
                     var ws = res.result();
                     var userId = context.<String>get("user-id");
-                    var llQuery = context.queryParam("lavalink");
-                    var lavalinkConnection = lavalinkRoute
-                                                     || "lavalink".equalsIgnoreCase(req.getHeader("Andesite-Compat"))
-                                                     || llQuery != null && !llQuery.isEmpty();
                     log.info("New {}connection from {} with id {}",
-                            lavalinkConnection ? "lavalink " : "",
+                            lavalinkConnection ? "lavalink " : binaryConnection ? "binary " : "",
                             context.request().remoteAddress(), id);
-                    var frameHandler = new FrameHandler(andesite, userId, ws, id, lavalinkConnection);
+                    var frameHandler = new FrameHandler(andesite, userId, ws, id, lavalinkConnection, binaryConnection);
                     var resumeId = context.request().getHeader("Andesite-Resume-Id");
                     if(resumeId != null) {
                         try {
@@ -73,15 +80,12 @@ public class WebSocketHandler {
                                 log.info("Resuming connection {} to {}", resumeId, id);
                                 buffer.subscriptions().forEach(p -> {
                                     p.eventListeners().remove(buffer);
-                                    p.setListener(frameHandler, frameHandler::subscriptionHandler);
-                                });
-                                buffer.empty(json -> {
-                                    if(lavalinkConnection){
-                                        json = transformPayloadForLavalink(json);
-                                    }
-                                    if(json == null) return;
-                                    ws.writeFinalTextFrame(json.encode());
+                                    p.setEventListener(frameHandler, frameHandler::subscriptionHandler);
                                 });
+                                //buffered updates are full states, and the new connection has no
+                                //delta baselines, so the client never applies a delta to a state it missed
+                                buffer.empty(frameHandler::send);
+                                buffer.close();
                             } else {
                                 log.warn("Attempted to resume session with {} but it didn't exist " +
                                                  "(check if you configured resuming or tried resuming twice)", resumeId);
@@ -91,22 +95,20 @@ public class WebSocketHandler {
                         }
                     }
                     if(!lavalinkConnection) {
-                        ws.writeTextMessage(new JsonObject()
-                                                    .put("op", "connection-id")
-                                                    //making it a string allows a future change of the
-                                                    //id format without breaking clients - the actual
-                                                    //format is opaque to them.
-                                                    .put("id", String.valueOf(id))
-                                                    .encode()
+                        frameHandler.send(new JsonObject()
+                                                  .put("op", "connection-id")
+                                                  //making it a string allows a future change of the
+                                                  //id format without breaking clients - the actual
+                                                  //format is opaque to them.
+                                                  .put("id", String.valueOf(id))
                         );
                         var metadata = new JsonObject();
                         andesite.requestHandler().metadataFields(NamePartJoiner.LOWER_CAMEL_CASE).forEach((k, v) ->
                               metadata.put(k, toJson(v))
                         );
-                        ws.writeTextMessage(new JsonObject()
-                                                    .put("op", "metadata")
-                                                    .put("data", metadata)
-                                                    .encode()
+                        frameHandler.send(new JsonObject()
+                                                  .put("op", "metadata")
+                                                  .put("data", metadata)
                         );
                     }
                     ws.frameHandler(frameHandler);
@@ -117,6 +119,30 @@ public class WebSocketHandler {
         };
     }
     
+    /**
+     * Binary connections are requested with an {@code Andesite-Compat: cbor} header or, for clients
+     * that can't set headers, an {@code andesite-cbor} websocket protocol.
+     */
+    @CheckReturnValue
+    private static boolean negotiateBinary(@Nonnull RoutingContext context) {
+        var req = context.request();
+        if(BINARY_PROTOCOL_NAME.equalsIgnoreCase(req.getHeader("Andesite-Compat"))) {
+            return true;
+        }
+        var wsHeader = req.getHeader("Sec-WebSocket-Protocol");
+        if(wsHeader == null) return false;
+        for(var part : wsHeader.split(",")) {
+            if(part.trim().equals(BINARY_PROTOCOL)) {
+                //only one protocol can be selected, the password one takes priority
+                if(context.response().headers().get("Sec-WebSocket-Protocol") == null) {
+                    context.response().putHeader("Sec-WebSocket-Protocol", BINARY_PROTOCOL);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+    
     @Nonnull
     @CheckReturnValue
     private static Object toJson(@Nonnull MetadataEntry entry) {
@@ -133,9 +159,11 @@ public class WebSocketHandler {
         private final ServerWebSocket ws;
         private final long connectionId;
         private final boolean lavalink;
+        private final boolean binary;
         private final Context context;
         private final Long timerId;
         private final Set<Player> subscriptions = ConcurrentHashMap.newKeySet();
+        private final PlayerUpdateCoalescer updates;
         private final AndesiteEventListener listener = new AndesiteEventListener() {
             @Override
             public void onWebSocketClosed(@Nonnull NodeState state, @Nonnull String userId,
@@ -153,25 +181,28 @@ public class WebSocketHandler {
                     payload = transformPayloadForLavalink(payload);
                 }
                 if(payload == null) return;
-                ws.writeFinalTextFrame(payload.encode());
+                send(payload);
             }
         };
         private long timeout;
         
         FrameHandler(@Nonnull Andesite andesite, @Nonnull String user,
-                     @Nonnull ServerWebSocket ws, long connectionId, boolean lavalink) {
+                     @Nonnull ServerWebSocket ws, long connectionId, boolean lavalink, boolean binary) {
             this.andesite = andesite;
             this.user = user;
             this.ws = ws;
             this.connectionId = connectionId;
             this.lavalink = lavalink;
+            this.binary = binary;
             this.context = andesite.vertx().getOrCreateContext();
+            var updateConfig = andesite.config().getConfig("andesite.player-updates");
+            this.updates = new PlayerUpdateCoalescer(andesite.vertx(), this::send, this::send,
+                    updateConfig.getDuration("coalesce-window", TimeUnit.MILLISECONDS),
+                    updateConfig.getDuration("snapshot-interval", TimeUnit.MILLISECONDS));
             if(lavalink) {
                 this.timerId = andesite.vertx().setPeriodic(30_000, __ -> {
                     var stats = andesite.requestHandler().nodeStatsForLavalink();
-                    ws.writeFinalTextFrame(stats
-                            .put("op", "stats")
-                            .encode());
+                    send(stats.put("op", "stats"));
                 });
             } else {
                 this.timerId = null;
@@ -207,6 +238,12 @@ public class WebSocketHandler {
             return lavalink;
         }
     
+        @CheckReturnValue
+        @Override
+        public boolean binary() {
+            return binary;
+        }
+    
         @CheckReturnValue
         @Override
         @SuppressWarnings("unchecked")
@@ -226,10 +263,13 @@ public class WebSocketHandler {
             if(timeout != 0) {
                 log.info("setting up buffer");
                 var buffer = andesite.createEventBuffer(connectionId, subscriptions);
-                subscriptions.forEach(p -> p.setListener(buffer, buffer::offer));
+                subscriptions.forEach(p -> p.setEventListener(buffer, buffer::offer));
                 andesite.vertx().setTimer(timeout, __ -> {
                     subscriptions.forEach(p -> p.eventListeners().remove(buffer));
-                    andesite.removeEventBuffer(connectionId);
+                    var removed = andesite.removeEventBuffer(connectionId);
+                    if(removed != null) {
+                        removed.close();
+                    }
                 });
             }
             if(timerId != null) {
@@ -237,15 +277,41 @@ public class WebSocketHandler {
             }
             andesite.dispatcher().unregister(listener);
             subscriptions.forEach(p -> p.eventListeners().remove(this));
+            context.runOnContext(__ -> updates.close());
         }
         
-        void subscriptionHandler(JsonObject json) {
-            if(lavalink) {
-                json = transformPayloadForLavalink(json);
+        void subscriptionHandler(EncodedEvent event) {
+            context.runOnContext(__ -> handleEvent(event));
+        }
+        
+        private void handleEvent(@Nonnull EncodedEvent event) {
+            var payload = event.payload();
+            if("player-update".equals(payload.getString("op"))) {
+                updates.offer(event);
+                return;
+            }
+            if("PlayerDestroyedEvent".equals(payload.getString("type"))) {
+                updates.remove(payload.getString("userId"), payload.getString("guildId"));
+            }
+            send(event);
+        }
+        
+        void send(@Nonnull EncodedEvent event) {
+            if(binary) {
+                ws.writeFinalBinaryFrame(event.binary());
+                return;
+            }
+            var s = lavalink ? event.lavalinkText() : event.text();
+            if(s == null) return;
+            ws.writeFinalTextFrame(s);
+        }
+        
+        void send(@Nonnull JsonObject payload) {
+            if(binary) {
+                ws.writeFinalBinaryFrame(CborCodec.encode(payload));
+            } else {
+                ws.writeFinalTextFrame(payload.encode());
             }
-            if(json == null) return;
-            var s = json.encode();
-            context.runOnContext(__ -> ws.writeFinalTextFrame(s));
         }
         
         @Override
@@ -255,12 +321,12 @@ public class WebSocketHandler {
                 if(frame.isText()) {
                     payload = new JsonObject(frame.textData());
                 } else if(frame.isBinary()) {
-                    payload = new JsonObject(frame.binaryData());
+                    payload = binary ? CborCodec.decode(frame.binaryData()) : new JsonObject(frame.binaryData());
                 } else {
                     return;
                 }
             } catch(Exception e) {
-                ws.close((short) 4001, "Unable to read frame data as json: " + e);
+                ws.close((short) 4001, "Unable to read frame data as " + (binary && frame.isBinary() ? "cbor" : "json") + ": " + e);
                 return;
             }
             log.debug("Received payload {}", payload);
@@ -289,11 +355,15 @@ public class WebSocketHandler {
                 case "voice-server-update", "voiceUpdate" ->
                         andesite.requestHandler().provideVoiceServerUpdate(user, payload);
                 case "event-buffer" -> timeout = payload.getInteger("timeout", 0);
-                case "get-stats" -> ws.writeFinalTextFrame(new JsonObject()
+                case "player-updates" -> updates.configure(
+                        payload.getLong("window", andesite.config().getDuration(
+                                "andesite.player-updates.coalesce-window", TimeUnit.MILLISECONDS)),
+                        !lavalink && payload.getBoolean("delta", false)
+                );
+                case "get-stats" -> send(new JsonObject()
                                                .put("op", "stats")
                                                .put("userId", this.user)
                                                .put("stats", andesite.requestHandler().nodeStats())
-                                               .encode()
                 );
                 case "get-player" -> {
                     var json = andesite.requestHandler().player(user, guild);
@@ -313,7 +383,7 @@ public class WebSocketHandler {
                 }
                 case "play" -> {
                     var player = andesite.getPlayer(user, guild);
-                    player.setListener(this, this::subscriptionHandler);
+                    player.setEventListener(this, this::subscriptionHandler);
                     subscriptions.add(player);
                     var json = andesite.requestHandler().play(user, guild, payload);
                     sendPlayerUpdate(user, guild, json);
@@ -345,8 +415,68 @@ public class WebSocketHandler {
                     }
                     var json = andesite.requestHandler().destroy(user, guild, false);
                     sendPlayerUpdate(user, guild, json == null ? null : json.put("destroyed", true));
+                    updates.remove(user, guild);
+                }
+                case "batch" -> {
+                    var operations = payload.getJsonArray("ops", new JsonArray());
+                    prepareBatch(user, operations);
+                    var errorsOnly = payload.getBoolean("errorsOnly", false);
+                    //each operation goes through the plugins, like it would if sent on its own
+                    var results = andesite.requestHandler().batch(user, operations, errorsOnly,
+                            operation -> andesite.pluginManager().customHandleWebSocketPayload(this, operation));
+                    recordBatch(user, operations, errorsOnly ? null : results);
+                    send(new JsonObject()
+                                 .put("op", "batch")
+                                 .put("userId", user)
+                                 .put("results", results));
+                }
+                case "ping" -> send(payload.put("userId", this.user).put("op", "pong"));
+            }
+        }
+        
+        /**
+         * Updates subscriptions the same way the individual ops would.
+         */
+        private void prepareBatch(@Nonnull String defaultUser, @Nonnull JsonArray operations) {
+            for(var i = 0; i < operations.size(); i++) {
+                var operation = operations.getValue(i);
+                if(!(operation instanceof JsonObject)) continue;
+                var json = (JsonObject) operation;
+                var user = json.getString("userId", defaultUser);
+                var guild = json.getString("guildId", null);
+                if(guild == null) continue;
+                switch(json.getString("op", "")) {
+                    case "play" -> {
+                        var player = andesite.getPlayer(user, guild);
+                        player.setEventListener(this, this::subscriptionHandler);
+                        subscriptions.add(player);
+                    }
+                    case "destroy" -> {
+                        var player = andesite.getExistingPlayer(user, guild);
+                        if(player != null) {
+                            subscriptions.remove(player);
+                        }
+                    }
                 }
-                case "ping" -> ws.writeFinalTextFrame(payload.put("userId", this.user).put("op", "pong").encode());
+            }
+        }
+        
+        /**
+         * Batch results replace the state clients have for the players, so they
+         * become the base for following player update deltas.
+         */
+        private void recordBatch(@Nonnull String defaultUser, @Nonnull JsonArray operations,
+                                 @Nullable JsonArray results) {
+            for(var i = 0; i < operations.size(); i++) {
+                var operation = operations.getValue(i);
+                if(!(operation instanceof JsonObject)) continue;
+                var json = (JsonObject) operation;
+                var guild = json.getString("guildId", null);
+                if(guild == null) continue;
+                var result = results == null ? null : results.getValue(i);
+                var state = result instanceof JsonObject && !((JsonObject) result).containsKey("error") ?
+                                    (JsonObject) result : null;
+                updates.sent(json.getString("userId", defaultUser), guild, state);
             }
         }
         
@@ -357,24 +487,14 @@ public class WebSocketHandler {
                     .put("userId", userId)
                     .put("guildId", guildId)
                     .put("state", player);
-            ws.writeFinalTextFrame(payload.encode());
+            send(payload);
+            updates.sent(userId, guildId, player);
         }
     }
     
     @Nullable
     @CheckReturnValue
     private static JsonObject transformPayloadForLavalink(@Nonnull JsonObject payload) {
-        if("player-update".equals(payload.getValue("op", null))) {
-            return payload.put("op", "playerUpdate");
-        }
-        if("event".equals(payload.getValue("op", null))) {
-            if("WebSocketClosedEvent".equals(payload.getValue("type", null))) {
-                var reason = payload.getString("reason", null);
-                if(reason == null) {
-                    payload.put("reason", "");
-                }
-            }
-        }
-        return payload;
+        return EncodedEvent.toLavalink(payload);
     }
 }
@@ -0,0 +1,245 @@
+package andesite.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEvent;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventListener;
+import com.sedmelluq.discord.lavaplayer.player.event.TrackEndEvent;
+import com.sedmelluq.discord.lavaplayer.player.event.TrackStartEvent;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single upstream audio player whose opus frames are shared by every subscribed player.
+ *
+ * <br>Frames are stored in a small ring. The first subscriber asking for a frame that hasn't
+ * been produced yet pulls it from the audio player, every other subscriber then reads the same
+ * bytes, so the track is only decoded once no matter how many guilds are listening.
+ */
+public class Broadcast implements AudioEventListener {
+    //one second of audio
+    private static final int RING_SIZE = 50;
+    //subscribers more than this many frames behind skip ahead instead of reading slots being overwritten
+    private static final int MAX_LAG = RING_SIZE / 2;
+    //non stream tracks can only be joined while the broadcast is this close to the requested start
+    private static final int JOIN_GRACE_FRAMES = 50;
+    
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final MutableAudioFrame frame = new MutableAudioFrame();
+    private final ByteBuffer[] ring = new ByteBuffer[RING_SIZE];
+    private final int[] lengths = new int[RING_SIZE];
+    private final BroadcastManager manager;
+    private final String key;
+    private final AudioPlayer player;
+    private final AudioTrack track;
+    private final long start;
+    private long head;
+    private volatile boolean ended;
+    
+    Broadcast(@Nonnull BroadcastManager manager, @Nonnull String key, @Nonnull AudioPlayer player,
+              @Nonnull AudioTrack track, long start, int frameSize) {
+        this.manager = manager;
+        this.key = key;
+        this.player = player;
+        this.track = track;
+        this.start = start;
+        for(var i = 0; i < RING_SIZE; i++) {
+            ring[i] = ByteBuffer.allocate(frameSize);
+        }
+        player.addListener(this);
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public String key() {
+        return key;
+    }
+    
+    @CheckReturnValue
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+    
+    @CheckReturnValue
+    public long position() {
+        return start + head * 20;
+    }
+    
+    @Override
+    public void onEvent(AudioEvent event) {
+        if(event instanceof TrackEndEvent) {
+            List<Subscription> ending;
+            synchronized(this) {
+                ended = true;
+                ending = List.copyOf(subscriptions);
+                subscriptions.clear();
+            }
+            manager.remove(this);
+            //detached before the event is sent, so they can play another track when handling it
+            for(var s : ending) {
+                s.player.broadcastEnded(s, event);
+            }
+            return;
+        }
+        for(var s : subscriptions) {
+            s.player.onBroadcastEvent(event);
+        }
+    }
+    
+    @CheckReturnValue
+    boolean joinable() {
+        if(ended) return false;
+        return track.getInfo().isStream || head <= JOIN_GRACE_FRAMES;
+    }
+    
+    void start() {
+        if(start != 0) {
+            track.setPosition(start);
+        }
+        player.startTrack(track, false);
+    }
+    
+    /**
+     * Subscribes a player to this broadcast.
+     *
+     * @param subscriber Player to subscribe.
+     *
+     * @return The subscription, or null if the track already ended.
+     */
+    @Nullable
+    @CheckReturnValue
+    synchronized Subscription subscribe(@Nonnull Player subscriber) {
+        if(ended) return null;
+        var subscription = new Subscription(subscriber, head);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+    
+    private void unsubscribe(@Nonnull Subscription subscription) {
+        //holds the manager lock so a player can't join between the last one leaving and the destroy
+        synchronized(manager) {
+            if(subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+                manager.remove(this);
+                player.destroy();
+            }
+        }
+    }
+    
+    //must be called while holding the lock
+    private boolean advance() {
+        if(ended) return false;
+        var slot = (int) (head % RING_SIZE);
+        var buffer = ring[slot].clear();
+        frame.setBuffer(buffer);
+        if(!player.provide(frame)) {
+            return false;
+        }
+        lengths[slot] = frame.getDataLength();
+        head++;
+        return true;
+    }
+    
+    public class Subscription {
+        private final ByteBuffer[] views = new ByteBuffer[RING_SIZE];
+        private final Player player;
+        private long cursor;
+        private int currentSlot;
+        private int currentLength;
+        
+        private Subscription(Player player, long cursor) {
+            this.player = player;
+            this.cursor = cursor;
+            //per subscriber views, so each send system can move position/limit without
+            //affecting other subscribers reading the same frame
+            for(var i = 0; i < RING_SIZE; i++) {
+                views[i] = ring[i].duplicate();
+            }
+        }
+        
+        @Nonnull
+        @CheckReturnValue
+        public Broadcast broadcast() {
+            return Broadcast.this;
+        }
+        
+        /**
+         * Sends a track start event to the subscriber if it joined after the track started,
+         * so it still knows what is playing.
+         */
+        void announce() {
+            var playing = Broadcast.this.player.getPlayingTrack();
+            if(playing != null) {
+                player.onBroadcastEvent(new TrackStartEvent(Broadcast.this.player, playing));
+            }
+        }
+        
+        @CheckReturnValue
+        boolean canProvide() {
+            synchronized(Broadcast.this) {
+                if(cursor >= head && !advance()) {
+                    return false;
+                }
+                if(head - cursor > MAX_LAG) {
+                    cursor = head - 1;
+                }
+                currentSlot = (int) (cursor % RING_SIZE);
+                currentLength = lengths[currentSlot];
+                cursor++;
+                return true;
+            }
+        }
+        
+        @Nonnull
+        @CheckReturnValue
+        ByteBuffer provide() {
+            return views[currentSlot].position(0).limit(currentLength);
+        }
+        
+        /**
+         * Leaves the broadcast, returning a copy of the track positioned where this subscriber
+         * currently is, so playback can continue on a dedicated player.
+         *
+         * @return A copy of the track, or null if the broadcast already ended.
+         */
+        @Nullable
+        @CheckReturnValue
+        AudioTrack leave() {
+            var playing = Broadcast.this.player.getPlayingTrack();
+            unsubscribe(this);
+            if(ended || playing == null) {
+                return null;
+            }
+            var copy = playing.makeClone();
+            if(copy.isSeekable()) {
+                copy.setPosition(start + cursor * 20);
+            }
+            return copy;
+        }
+        
+        /**
+         * Returns the track being broadcast, or null if the broadcast already ended.
+         */
+        @Nullable
+        @CheckReturnValue
+        AudioTrack track() {
+            return ended ? null : Broadcast.this.player.getPlayingTrack();
+        }
+        
+        @CheckReturnValue
+        boolean playing() {
+            return !ended;
+        }
+        
+        @CheckReturnValue
+        long position() {
+            return start + cursor * 20;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package andesite.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the {@link Broadcast broadcasts} running on this node, so players requesting
+ * the same track at the same offset share a single upstream audio player.
+ */
+public class BroadcastManager {
+    private static final Logger log = LoggerFactory.getLogger(BroadcastManager.class);
+    
+    private final Map<String, Broadcast> broadcasts = new ConcurrentHashMap<>();
+    private final AudioPlayerManager playerManager;
+    private final boolean enabled;
+    
+    public BroadcastManager(@Nonnull AudioPlayerManager playerManager, boolean enabled) {
+        this.playerManager = playerManager;
+        this.enabled = enabled;
+    }
+    
+    @CheckReturnValue
+    public boolean enabled() {
+        return enabled;
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    public Collection<Broadcast> broadcasts() {
+        return broadcasts.values();
+    }
+    
+    /**
+     * Subscribes the player to a broadcast of the provided track, creating one if needed.
+     *
+     * @param player Player to subscribe.
+     * @param track  Track to play.
+     * @param start  Position to start the track at, in milliseconds.
+     */
+    public synchronized void join(@Nonnull Player player, @Nonnull AudioTrack track, long start) {
+        var key = track.getSourceManager().getSourceName() + ":" + track.getIdentifier() + "@" + start;
+        var broadcast = broadcasts.get(key);
+        if(broadcast != null && broadcast.joinable()) {
+            var subscription = broadcast.subscribe(player);
+            //null if the track ended after the joinable check
+            if(subscription != null) {
+                player.joinBroadcast(subscription);
+                subscription.announce();
+                return;
+            }
+        }
+        log.debug("Starting broadcast {}", key);
+        broadcast = new Broadcast(this, key, playerManager.createPlayer(), track, start,
+                playerManager.getConfiguration().getOutputFormat().maximumChunkSize());
+        //replaces a broadcast that can no longer be joined, it keeps running for its current subscribers
+        broadcasts.put(key, broadcast);
+        player.joinBroadcast(Objects.requireNonNull(broadcast.subscribe(player)));
+        broadcast.start();
+    }
+    
+    void remove(@Nonnull Broadcast broadcast) {
+        if(broadcasts.remove(broadcast.key(), broadcast)) {
+            log.debug("Broadcast {} finished", broadcast.key());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package andesite.player;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers used by players for audio frames, so they don't add to the heap.
+ *
+ * <br>Buffers are carved from slabs of {@value #SLAB_SLOTS} buffers of the same size, and players
+ * lease them when they start providing audio and release them after {@value #IDLE_FRAMES} frames
+ * without audio. Slabs are never freed, so the pool keeps the peak number of leased buffers.
+ */
+public class BufferPool {
+    /**
+     * Frames without audio after which players release their buffers.
+     */
+    public static final int IDLE_FRAMES = 250; //5 seconds
+    private static final int SLAB_SLOTS = 64;
+    /* time buffers released by other threads wait before being reused, so the sending thread is done with them */
+    private static final long DEFERRED_RELEASE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    
+    private final Map<Integer, SizeClass> classes = new ConcurrentHashMap<>();
+    private final Queue<Deferred> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong leasedBytes = new AtomicLong();
+    private final AtomicInteger leased = new AtomicInteger();
+    
+    /**
+     * Leases a buffer. The returned buffer has a capacity of exactly {@code size} bytes,
+     * is cleared and in big endian order.
+     *
+     * @param size Size of the buffer.
+     *
+     * @return A direct buffer, which must be given back to {@link #release(ByteBuffer)} or
+     * {@link #releaseDeferred(ByteBuffer)}.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public ByteBuffer lease(@Nonnegative int size) {
+        drainDeferred();
+        var c = classes.computeIfAbsent(size, SizeClass::new);
+        var buffer = c.free.pollFirst();
+        if(buffer == null) {
+            buffer = c.allocate();
+        }
+        leased.incrementAndGet();
+        leasedBytes.addAndGet(size);
+        return buffer;
+    }
+    
+    /**
+     * Gives back a buffer. Must only be called by the thread using it.
+     *
+     * @param buffer Buffer returned by {@link #lease(int)}.
+     */
+    public void release(@Nonnull ByteBuffer buffer) {
+        leased.decrementAndGet();
+        leasedBytes.addAndGet(-buffer.capacity());
+        buffer.clear().order(ByteOrder.BIG_ENDIAN);
+        //lifo, so recently used buffers are reused first
+        classes.get(buffer.capacity()).free.offerFirst(buffer);
+    }
+    
+    /**
+     * Gives back a buffer that might still be in use by a sending thread, like when a player is
+     * closed. It's only leased again after a few frames.
+     *
+     * @param buffer Buffer returned by {@link #lease(int)}.
+     */
+    public void releaseDeferred(@Nonnull ByteBuffer buffer) {
+        deferred.add(new Deferred(buffer, System.nanoTime() + DEFERRED_RELEASE_NANOS));
+    }
+    
+    /**
+     * Memory allocated by the pool, in bytes.
+     */
+    @CheckReturnValue
+    public long reservedBytes() {
+        return reservedBytes.get();
+    }
+    
+    /**
+     * Memory currently leased to players, in bytes.
+     */
+    @CheckReturnValue
+    public long leasedBytes() {
+        drainDeferred();
+        return leasedBytes.get();
+    }
+    
+    /**
+     * Number of buffers currently leased to players.
+     */
+    @CheckReturnValue
+    public int leasedBuffers() {
+        drainDeferred();
+        return leased.get();
+    }
+    
+    private void drainDeferred() {
+        Deferred d;
+        var now = System.nanoTime();
+        while((d = deferred.peek()) != null && now - d.releaseAt >= 0) {
+            //another thread might have taken it
+            if(deferred.remove(d)) {
+                release(d.buffer);
+            }
+        }
+    }
+    
+    private class SizeClass {
+        private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+        private final int size;
+        
+        SizeClass(int size) {
+            this.size = size;
+        }
+        
+        synchronized ByteBuffer allocate() {
+            //another thread might have allocated a slab while this one waited
+            var buffer = free.pollFirst();
+            if(buffer != null) return buffer;
+            var slab = ByteBuffer.allocateDirect(size * SLAB_SLOTS);
+            reservedBytes.addAndGet(slab.capacity());
+            for(var i = 1; i < SLAB_SLOTS; i++) {
+                free.offerLast(slab.slice(i * size, size));
+            }
+            return slab.slice(0, size);
+        }
+    }
+    
+    private static class Deferred {
+        final ByteBuffer buffer;
+        final long releaseAt;
+        
+        Deferred(ByteBuffer buffer, long releaseAt) {
+            this.buffer = buffer;
+            this.releaseAt = releaseAt;
+        }
+    }
+}
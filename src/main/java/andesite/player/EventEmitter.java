@@ -1,5 +1,6 @@
 package andesite.player;
 
+import andesite.event.EncodedEvent;
 import andesite.util.RequestUtils;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
@@ -9,26 +10,32 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 import io.vertx.core.json.JsonObject;
 
 import javax.annotation.Nonnull;
+import java.util.Map;
 import java.util.function.Consumer;
 
+/**
+ * Builds the events of a player once and sends them to all of its listeners.
+ */
 public class EventEmitter extends AudioEventAdapter {
     private final Player player;
-    private final Consumer<JsonObject> sendEvent;
+    private final Map<Object, Consumer<EncodedEvent>> listeners;
     
-    public EventEmitter(@Nonnull Player player, @Nonnull Consumer<JsonObject> sendEvent) {
+    public EventEmitter(@Nonnull Player player, @Nonnull Map<Object, Consumer<EncodedEvent>> listeners) {
         this.player = player;
-        this.sendEvent = sendEvent;
+        this.listeners = listeners;
     }
     
     @Override
     public void onTrackStart(AudioPlayer player, AudioTrack track) {
-        sendEvent.accept(event("TrackStartEvent", track));
+        if(listeners.isEmpty()) return;
+        send(event("TrackStartEvent", track));
         sendPlayerUpdate();
     }
     
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
-        sendEvent.accept(event("TrackEndEvent", track)
+        if(listeners.isEmpty()) return;
+        send(event("TrackEndEvent", track)
                 .put("reason", endReason.toString())
                 .put("mayStartNext", endReason.mayStartNext));
         sendPlayerUpdate();
@@ -37,7 +44,8 @@ public class EventEmitter extends AudioEventAdapter {
     // These exceptions are already logged by Lavaplayer
     @Override
     public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
-        sendEvent.accept(event("TrackExceptionEvent", track)
+        if(listeners.isEmpty()) return;
+        send(event("TrackExceptionEvent", track)
                 .put("error", exception.getMessage())
                 .put("exception", RequestUtils.encodeThrowableShort(exception)));
         sendPlayerUpdate();
@@ -45,22 +53,25 @@ public class EventEmitter extends AudioEventAdapter {
     
     @Override
     public void onTrackStuck(AudioPlayer player, AudioTrack track, long thresholdMs) {
-        sendEvent.accept(event("TrackStuckEvent", track)
+        if(listeners.isEmpty()) return;
+        send(event("TrackStuckEvent", track)
                 .put("thresholdMs", thresholdMs));
         sendPlayerUpdate();
     }
     
     public void onPlayerDestroyed(boolean cleanup) {
-        sendEvent.accept(new JsonObject()
-                                 .put("op", "event")
-                                 .put("type", "PlayerDestroyedEvent")
-                                 .put("cleanup", cleanup)
-                                 .put("guildId", player.guildId())
-                                 .put("userId", player.userId()));
+        if(listeners.isEmpty()) return;
+        send(new JsonObject()
+                     .put("op", "event")
+                     .put("type", "PlayerDestroyedEvent")
+                     .put("cleanup", cleanup)
+                     .put("guildId", player.guildId())
+                     .put("userId", player.userId()));
     }
     
     public void sendPlayerUpdate() {
-        sendEvent.accept(new JsonObject()
+        if(listeners.isEmpty()) return;
+        send(new JsonObject()
                 .put("op", "player-update")
                 .put("guildId", player.guildId())
                 .put("userId", player.userId())
@@ -68,6 +79,13 @@ public class EventEmitter extends AudioEventAdapter {
         );
     }
     
+    private void send(@Nonnull JsonObject payload) {
+        var event = new EncodedEvent(payload);
+        for(var listener : listeners.values()) {
+            listener.accept(event);
+        }
+    }
+    
     private JsonObject event(@Nonnull String type, @Nonnull AudioTrack track) {
         return new JsonObject()
                 .put("op", "event")
@@ -0,0 +1,181 @@
+package andesite.player;
+
+import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.typesafe.config.Config;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the frame buffer duration of every player and mixer player, instead of using
+ * {@code frame-buffer-duration} for all of them.
+ *
+ * <br>Players start with {@code min-duration}. Every {@code adjust-interval}, players that lost frames
+ * since the last adjustment have their buffer doubled, up to {@code frame-buffer-duration}, and players
+ * without loss for a minute have it halved. Local files always use the minimum. If the estimated memory
+ * of all buffers goes over {@code memory-budget}, every buffer is scaled down to fit.
+ *
+ * <br>Lavaplayer only reads the duration when a track starts, so changes apply from the next track.
+ */
+public class FrameBufferBudget {
+    private static final Logger log = LoggerFactory.getLogger(FrameBufferBudget.class);
+    /* new frames lost since the last adjustment needed to grow a buffer */
+    private static final int GROW_LOSS = 5;
+    
+    private final Set<Buffer> buffers = ConcurrentHashMap.newKeySet();
+    private final boolean enabled;
+    private final int minDuration;
+    private final int maxDuration;
+    private final long budget;
+    private final int shrinkChecks;
+    private volatile long usedBytes;
+    private volatile int bufferingPlayers;
+    
+    public FrameBufferBudget(@Nonnull Vertx vertx, @Nonnull Config config, int maxDuration) {
+        this.enabled = config.getBoolean("enabled");
+        this.maxDuration = maxDuration;
+        this.minDuration = Math.min(maxDuration, config.getInt("min-duration"));
+        this.budget = config.getBytes("memory-budget");
+        var interval = Math.max(1, config.getDuration("adjust-interval", TimeUnit.MILLISECONDS));
+        this.shrinkChecks = (int)Math.max(1, TimeUnit.MINUTES.toMillis(1) / interval);
+        if(!enabled) return;
+        vertx.setPeriodic(interval, __ -> vertx.<Void>executeBlocking(promise -> {
+            adjust();
+            promise.complete();
+        }, false, result -> {
+            if(result.failed()) {
+                log.error("Error adjusting frame buffers", result.cause());
+            }
+        }));
+    }
+    
+    @CheckReturnValue
+    public boolean enabled() {
+        return enabled;
+    }
+    
+    /**
+     * Memory budget for all frame buffers, in bytes.
+     */
+    @CheckReturnValue
+    public long budget() {
+        return budget;
+    }
+    
+    /**
+     * Estimated memory used by the frame buffers of all players with a track, in bytes, as of
+     * the last adjustment.
+     */
+    @CheckReturnValue
+    public long usedBytes() {
+        return usedBytes;
+    }
+    
+    /**
+     * Number of players counted in {@link #usedBytes()}.
+     */
+    @CheckReturnValue
+    public int bufferingPlayers() {
+        return bufferingPlayers;
+    }
+    
+    /**
+     * Starts managing the frame buffer of a player.
+     *
+     * @param player  Player to manage.
+     * @param counter Frame loss counter of the player.
+     * @param format  Output format of the player manager, used to estimate memory usage.
+     *
+     * @return The managed buffer, which must be {@link Buffer#release() released} when the player
+     * is destroyed, or null if adaptive buffering is disabled.
+     */
+    @Nullable
+    @CheckReturnValue
+    public Buffer register(@Nonnull AudioPlayer player, @Nonnull FrameLossCounter counter,
+                           @Nonnull AudioDataFormat format) {
+        if(!enabled) return null;
+        var buffer = new Buffer(player, counter, format.expectedChunkSize());
+        player.setFrameBufferDuration(minDuration);
+        buffers.add(buffer);
+        return buffer;
+    }
+    
+    private void adjust() {
+        long wanted = 0;
+        for(var b : buffers) {
+            var track = b.player.getPlayingTrack();
+            var loss = b.counter.lastMinuteLossSum();
+            //losses leaving the one minute window make this negative
+            var newLoss = loss - b.lastLoss;
+            b.lastLoss = loss;
+            if(track == null || b.player.isPaused()) continue;
+            var source = track.getSourceManager();
+            if(source != null && "local".equals(source.getSourceName())) {
+                b.target = minDuration;
+            } else if(newLoss >= GROW_LOSS) {
+                b.target = Math.min(maxDuration, b.target * 2);
+                b.cleanChecks = 0;
+            } else if(loss == 0 && ++b.cleanChecks >= shrinkChecks) {
+                b.target = Math.max(minDuration, b.target / 2);
+                b.cleanChecks = 0;
+            }
+            wanted += b.bytes(b.target);
+        }
+        var scale = wanted > budget ? (double)budget / wanted : 1;
+        long used = 0;
+        var count = 0;
+        for(var b : buffers) {
+            var duration = Math.max(minDuration, (int)(b.target * scale));
+            if(duration != b.applied) {
+                b.player.setFrameBufferDuration(duration);
+                b.applied = duration;
+            }
+            if(b.player.getPlayingTrack() != null) {
+                used += b.bytes(duration);
+                count++;
+            }
+        }
+        if(scale < 1) {
+            log.debug("Frame buffers need {} bytes, over the budget of {}. Scaling down by {}", wanted, budget, scale);
+        }
+        usedBytes = used;
+        bufferingPlayers = count;
+    }
+    
+    public class Buffer {
+        private final AudioPlayer player;
+        private final FrameLossCounter counter;
+        private final int chunkSize;
+        /* only accessed by the adjusting thread */
+        private int target = minDuration;
+        private int applied = minDuration;
+        private int lastLoss;
+        private int cleanChecks;
+        
+        private Buffer(AudioPlayer player, FrameLossCounter counter, int chunkSize) {
+            this.player = player;
+            this.counter = counter;
+            this.chunkSize = chunkSize;
+        }
+        
+        /**
+         * Stops managing this buffer.
+         */
+        public void release() {
+            buffers.remove(this);
+        }
+        
+        private long bytes(int duration) {
+            //lavaplayer keeps one frame more than the duration
+            return (long)(duration / 20 + 1) * chunkSize;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package andesite.player;
+
+import io.vertx.core.Vertx;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+
+/**
+ * Node wide clock used by frame loss trackers, ticking once per second.
+ *
+ * <br>Trackers compare the current tick with the one of their last frame instead of calling
+ * {@link System#nanoTime()} for every frame.
+ */
+public class FrameClock {
+    private final Vertx vertx;
+    private final long timerId;
+    private volatile int second;
+    
+    public FrameClock(@Nonnull Vertx vertx) {
+        this.vertx = vertx;
+        //only incremented by the timer, so there's a single writer
+        this.timerId = vertx.setPeriodic(1000, __ -> second++);
+    }
+    
+    /**
+     * Returns the number of seconds elapsed since this clock was created.
+     *
+     * @return The current tick.
+     */
+    @CheckReturnValue
+    public int second() {
+        return second;
+    }
+    
+    /**
+     * Stops the clock. {@link #second()} keeps returning the last tick.
+     */
+    public void close() {
+        vertx.cancelTimer(timerId);
+    }
+}
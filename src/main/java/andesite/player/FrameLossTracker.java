@@ -7,41 +7,106 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
 
+/**
+ * Counts frames sent and lost over the last minute.
+ *
+ * <br>{@link #onSuccess()} and {@link #onFail()} must only be called by the sending thread. They
+ * only increment a counter, and once per {@link FrameClock} tick the counter is moved to a ring
+ * of packed per second values, updating running sums. Reads from other threads see values
+ * published at the last tick, without locking or scanning the ring.
+ */
 public class FrameLossTracker extends AudioEventAdapter implements FrameLossCounter {
     private static final long ACCEPTABLE_TRACK_SWITCH_TIME = TimeUnit.MILLISECONDS.toNanos(100);
-    private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final int SECONDS = 60;
+    private static final long SUCCESS_ONE = 1L << 32;
     
-    private final ByteRingBuffer loss = new ByteRingBuffer(60);
-    private final ByteRingBuffer success = new ByteRingBuffer(60);
-    private long playingSince = Long.MAX_VALUE;
-    private long trackStart;
-    private long lastTrackEnd;
-    private long lastUpdate;
-    private byte currentLoss;
-    private byte currentSuccess;
+    /* per second values, success in the high 32 bits and loss in the low 32 bits */
+    private final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+    private final FrameClock clock;
+    /* null if this tracker isn't part of the node stats */
+    private final NodeStatsAggregator stats;
+    /* packed like the per second values, published on every tick */
+    private volatile long sums;
+    private volatile int size;
+    private volatile int playingSince = Integer.MIN_VALUE;
+    private volatile long playingSinceNanos;
+    private volatile long trackStart;
+    private volatile long lastTrackEnd;
+    private volatile boolean clearRequested;
+    private volatile boolean reporting = true;
+    /* only accessed by the sending thread */
+    private long current;
+    private long runningSums;
+    private int position;
+    private int lastSecond;
+    /* values currently added to the node stats, guarded by this */
+    private boolean reported;
+    private int reportedLoss;
+    private int reportedSuccess;
+    
+    public FrameLossTracker(@Nonnull FrameClock clock, @Nullable NodeStatsAggregator stats) {
+        this.clock = clock;
+        this.stats = stats;
+        this.lastSecond = clock.second();
+    }
     
     public void onSuccess() {
         checkTime();
-        currentSuccess++;
+        current += SUCCESS_ONE;
     }
     
     public void onFail() {
         checkTime();
-        currentLoss++;
+        current++;
     }
     
     @Nonnull
     @Override
+    @Deprecated
     public ByteRingBuffer lastMinuteLoss() {
-        return loss;
+        var buffer = new ByteRingBuffer(SECONDS);
+        forEachSecond(v -> buffer.put((byte) Math.min(loss(v), Byte.MAX_VALUE)));
+        return buffer;
     }
     
     @Nonnull
     @Override
+    @Deprecated
     public ByteRingBuffer lastMinuteSuccess() {
-        return success;
+        var buffer = new ByteRingBuffer(SECONDS);
+        forEachSecond(v -> buffer.put((byte) Math.min(success(v), Byte.MAX_VALUE)));
+        return buffer;
+    }
+    
+    @Override
+    public int lastMinuteLossSum() {
+        return loss(sums);
+    }
+    
+    @Override
+    public int lastMinuteSuccessSum() {
+        return success(sums);
+    }
+    
+    @Nonnull
+    @Override
+    public int[] lossHistogram() {
+        var histogram = new int[EXPECTED_PACKET_COUNT_PER_SECOND + 1];
+        forEachSecond(v -> histogram[Math.min(loss(v), EXPECTED_PACKET_COUNT_PER_SECOND)]++);
+        return histogram;
+    }
+    
+    @Nonnull
+    @Override
+    public int[] successHistogram() {
+        var histogram = new int[EXPECTED_PACKET_COUNT_PER_SECOND + 1];
+        forEachSecond(v -> histogram[Math.min(success(v), EXPECTED_PACKET_COUNT_PER_SECOND)]++);
+        return histogram;
     }
     
     @Override
@@ -49,26 +114,103 @@ public class FrameLossTracker extends AudioEventAdapter implements FrameLossCoun
         if(trackStart - lastTrackEnd > ACCEPTABLE_TRACK_SWITCH_TIME && lastTrackEnd != 0) {
             return false;
         }
-        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - playingSince) >= 60;
+        var since = playingSince;
+        return since != Integer.MIN_VALUE && clock.second() - since >= SECONDS;
+    }
+    
+    /**
+     * Sets whether or not this tracker should be counted in the node stats. The change
+     * is applied on the next tick.
+     *
+     * @param reporting Whether or not this tracker should be counted.
+     */
+    public void setReporting(boolean reporting) {
+        this.reporting = reporting;
+    }
+    
+    /**
+     * Removes this tracker from the node stats. Must be called when the tracker is discarded.
+     */
+    public synchronized void release() {
+        reporting = false;
+        report();
     }
     
     private void checkTime() {
-        var now = System.nanoTime();
-        if(now - lastUpdate > ONE_SECOND) {
-            lastUpdate = now;
-            loss.put(currentLoss);
-            success.put(currentSuccess);
-            currentLoss = 0;
-            currentSuccess = 0;
+        var now = clock.second();
+        if(now != lastSecond) {
+            tick(now - lastSecond);
+            lastSecond = now;
+        }
+    }
+    
+    private void tick(int elapsed) {
+        if(clearRequested) {
+            clearRequested = false;
+            for(var i = 0; i < SECONDS; i++) {
+                seconds.set(i, 0);
+            }
+            position = 0;
+            size = 0;
+            runningSums = 0;
+        }
+        push(current);
+        current = 0;
+        //seconds without any frames
+        for(var i = 1; i < Math.min(elapsed, SECONDS); i++) {
+            push(0);
+        }
+        sums = runningSums;
+        if(stats != null) {
+            synchronized(this) {
+                report();
+            }
+        }
+    }
+    
+    private void push(long value) {
+        var s = size;
+        var evicted = s == SECONDS ? seconds.get(position) : 0;
+        seconds.set(position, value);
+        position = position + 1 == SECONDS ? 0 : position + 1;
+        if(s < SECONDS) {
+            size = s + 1;
         }
+        //neither half can go negative, so the packed values can be added directly
+        runningSums += value - evicted;
+    }
+    
+    //calls the action for every stored second, oldest first
+    private void forEachSecond(LongConsumer action) {
+        //the start index may be off by one second if a tick happens concurrently
+        var s = size;
+        var start = s == SECONDS ? position : 0;
+        for(var i = 0; i < s; i++) {
+            action.accept(seconds.get((start + i) % SECONDS));
+        }
+    }
+    
+    //applies the difference between the current values and the reported ones to the node stats
+    private void report() {
+        if(stats == null) return;
+        var counted = reporting && isDataUsable();
+        var packed = sums;
+        var newLoss = counted ? loss(packed) : 0;
+        var newSuccess = counted ? success(packed) : 0;
+        stats.frameTrackerChanged(counted == reported ? 0 : counted ? 1 : -1,
+                newSuccess - reportedSuccess, newLoss - reportedLoss);
+        reported = counted;
+        reportedLoss = newLoss;
+        reportedSuccess = newSuccess;
     }
     
     private void start() {
-        trackStart = System.nanoTime();
-        if(trackStart - playingSince > ACCEPTABLE_TRACK_SWITCH_TIME || playingSince == Long.MAX_VALUE) {
-            playingSince = trackStart;
-            loss.clear();
-            success.clear();
+        var now = trackStart = System.nanoTime();
+        if(now - playingSinceNanos > ACCEPTABLE_TRACK_SWITCH_TIME || playingSince == Integer.MIN_VALUE) {
+            playingSinceNanos = now;
+            playingSince = clock.second();
+            //applied by the sending thread on the next tick
+            clearRequested = true;
         }
     }
     
@@ -76,6 +218,14 @@ public class FrameLossTracker extends AudioEventAdapter implements FrameLossCoun
         lastTrackEnd = System.nanoTime();
     }
     
+    private static int success(long packed) {
+        return (int) (packed >>> 32);
+    }
+    
+    private static int loss(long packed) {
+        return (int) packed;
+    }
+    
     @Override
     public void onPlayerPause(AudioPlayer player) {
         end();
@@ -0,0 +1,161 @@
+package andesite.player;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Node wide player statistics, updated incrementally by the players instead of iterating
+ * all of them on every request.
+ *
+ * <br>Players report when they start or stop playing, and frame loss trackers report the change
+ * in their last minute sums once per second. The node and lavalink stats are cached. The first
+ * read after they become older than {@code refresh-interval} starts a rebuild on a worker thread
+ * and still gets the previous snapshot, so idle nodes don't build stats nobody reads and readers
+ * on the event loop never wait for a rebuild.
+ */
+public class NodeStatsAggregator {
+    private static final Logger log = LoggerFactory.getLogger(NodeStatsAggregator.class);
+    
+    private final LongAdder playing = new LongAdder();
+    private final LongAdder framePlayers = new LongAdder();
+    private final LongAdder frameSent = new LongAdder();
+    private final LongAdder frameNulled = new LongAdder();
+    /* set once by configure(), before the snapshots */
+    private Vertx vertx;
+    private long refreshInterval;
+    private volatile Snapshot nodeStats;
+    private volatile Snapshot lavalinkStats;
+    
+    /**
+     * Sets how the snapshots are built.
+     *
+     * @param vertx                 Vertx instance used for the worker threads.
+     * @param refreshInterval       Maximum age of the snapshots, in milliseconds.
+     * @param nodeStatsSupplier     Builds the full node stats.
+     * @param lavalinkStatsSupplier Builds the lavalink compatible stats.
+     */
+    public synchronized void configure(@Nonnull Vertx vertx, long refreshInterval,
+                                       @Nonnull Supplier<JsonObject> nodeStatsSupplier,
+                                       @Nonnull Supplier<JsonObject> lavalinkStatsSupplier) {
+        if(nodeStats != null) {
+            throw new IllegalStateException("Already configured");
+        }
+        this.vertx = vertx;
+        this.refreshInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(refreshInterval, 1));
+        this.nodeStats = new Snapshot(nodeStatsSupplier);
+        this.lavalinkStats = new Snapshot(lavalinkStatsSupplier);
+    }
+    
+    /**
+     * Returns a copy of the latest node stats snapshot, starting a rebuild if it's too old.
+     *
+     * @return The node stats.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public JsonObject nodeStats() {
+        return nodeStats.get().copy();
+    }
+    
+    /**
+     * Returns a copy of the latest lavalink stats snapshot, starting a rebuild if it's too old.
+     *
+     * @return The lavalink stats.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public JsonObject lavalinkStats() {
+        return lavalinkStats.get().copy();
+    }
+    
+    @CheckReturnValue
+    public int playingPlayers() {
+        return playing.intValue();
+    }
+    
+    /**
+     * Number of frame loss trackers with usable data currently counted in the frame sums.
+     */
+    @CheckReturnValue
+    public int framePlayers() {
+        return framePlayers.intValue();
+    }
+    
+    /**
+     * Sum of frames sent in the last minute by all counted trackers.
+     */
+    @CheckReturnValue
+    public long frameSent() {
+        return frameSent.sum();
+    }
+    
+    /**
+     * Sum of frames nulled in the last minute by all counted trackers.
+     */
+    @CheckReturnValue
+    public long frameNulled() {
+        return frameNulled.sum();
+    }
+    
+    void playingChanged(boolean nowPlaying) {
+        playing.add(nowPlaying ? 1 : -1);
+    }
+    
+    void frameTrackerChanged(int players, int sent, int nulled) {
+        if(players != 0) framePlayers.add(players);
+        if(sent != 0) frameSent.add(sent);
+        if(nulled != 0) frameNulled.add(nulled);
+    }
+    
+    private class Snapshot {
+        private final AtomicBoolean rebuilding = new AtomicBoolean();
+        private final Supplier<JsonObject> supplier;
+        private volatile JsonObject json;
+        private volatile long builtAt;
+        
+        Snapshot(Supplier<JsonObject> supplier) {
+            this.supplier = supplier;
+        }
+        
+        @Nonnull
+        @CheckReturnValue
+        JsonObject get() {
+            var current = json;
+            if(current == null) {
+                //only the first read builds it, there's nothing to return before that
+                synchronized(this) {
+                    if(json == null) {
+                        build();
+                    }
+                    return json;
+                }
+            }
+            if(System.nanoTime() - builtAt >= refreshInterval && rebuilding.compareAndSet(false, true)) {
+                vertx.<Void>executeBlocking(promise -> {
+                    build();
+                    promise.complete();
+                }, false, result -> {
+                    rebuilding.set(false);
+                    if(result.failed()) {
+                        log.error("Error rebuilding node stats", result.cause());
+                    }
+                });
+            }
+            return current;
+        }
+        
+        private void build() {
+            json = supplier.get();
+            builtAt = System.nanoTime();
+        }
+    }
+}
@@ -11,31 +11,67 @@ import java.nio.ByteBuffer;
 
 class NonAllocatingProvider implements AudioProvider {
     private final MutableAudioFrame frame = new MutableAudioFrame();
-    private final ByteBuffer buffer;
     private final AudioPlayer player;
+    private final BufferPool pool;
+    private final int bufferSize;
+    /* leased while playing, only accessed by the sending thread until closed */
+    private ByteBuffer buffer;
+    /* buffer of the last frame, kept even if close() releases it concurrently */
+    private ByteBuffer providing;
+    private int idleFrames;
+    private boolean closed;
     
-    public NonAllocatingProvider(AudioPlayer player, AudioConfiguration configuration) {
-        this.buffer = ByteBuffer.allocate(configuration.getOutputFormat().maximumChunkSize());
+    public NonAllocatingProvider(AudioPlayer player, AudioConfiguration configuration, BufferPool pool) {
         this.player = player;
-        frame.setBuffer(buffer);
+        this.pool = pool;
+        this.bufferSize = configuration.getOutputFormat().maximumChunkSize();
     }
     
     @CheckReturnValue
     @Override
     public boolean canProvide() {
-        buffer.clear();
-        return player.provide(frame);
+        var b = buffer;
+        if(b == null) {
+            //a paused player doesn't provide anything, so leasing would only churn the pool
+            if(player.getPlayingTrack() == null || player.isPaused()) return false;
+            synchronized(this) {
+                if(closed) return false;
+                b = buffer = pool.lease(bufferSize);
+            }
+            frame.setBuffer(b);
+        }
+        b.clear();
+        if(player.provide(frame)) {
+            providing = b;
+            idleFrames = 0;
+            return true;
+        }
+        if(++idleFrames >= BufferPool.IDLE_FRAMES) {
+            synchronized(this) {
+                //close() might have released it already
+                if(buffer == b) {
+                    buffer = null;
+                    pool.release(b);
+                }
+            }
+        }
+        return false;
     }
     
     @CheckReturnValue
     @Nonnull
     @Override
     public ByteBuffer provide() {
-        return buffer.position(0).limit(frame.getDataLength());
+        return providing.position(0).limit(frame.getDataLength());
     }
     
     @Override
-    public void close() {
-        //noop
+    public synchronized void close() {
+        closed = true;
+        var b = buffer;
+        if(b != null) {
+            buffer = null;
+            pool.releaseDeferred(b);
+        }
     }
 }
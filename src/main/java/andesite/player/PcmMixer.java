@@ -0,0 +1,101 @@
+package andesite.player;
+
+import javax.annotation.Nonnull;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Mixes 16 bit PCM sample arrays in a single pass, applying the same soft clipping
+ * used by the mixer since it was introduced.
+ *
+ * <br>Samples are bulk copied from the player buffers into plain arrays before mixing,
+ * so the inner loop works on {@code short[]}s the JIT can unroll instead of going
+ * through bounds/order checked {@link ShortBuffer} accessors one sample at a time.
+ */
+final class PcmMixer {
+    private final short[][] inputs;
+    private final short[] output;
+    private int inputCount;
+    private int length;
+    
+    PcmMixer(int maxSamples, int initialInputs) {
+        this.inputs = new short[Math.max(initialInputs, 1)][];
+        this.output = new short[maxSamples];
+        for(var i = 0; i < inputs.length; i++) {
+            inputs[i] = new short[maxSamples];
+        }
+    }
+    
+    /**
+     * Discards all inputs added since the last mix.
+     */
+    void reset() {
+        inputCount = 0;
+        length = 0;
+    }
+    
+    /**
+     * Copies the remaining samples of the provided buffer as a new input.
+     * Inputs beyond the capacity given on construction are folded into the
+     * output immediately.
+     *
+     * @param samples Samples to mix.
+     */
+    void add(@Nonnull ShortBuffer samples) {
+        var count = Math.min(samples.remaining(), output.length);
+        if(inputCount == inputs.length) {
+            //out of slots, collapse what we have so far into the first one
+            mixInto(inputs[0]);
+            inputCount = 1;
+        }
+        var input = inputs[inputCount++];
+        samples.get(input, 0, count);
+        if(count < input.length) {
+            Arrays.fill(input, count, input.length, (short) 0);
+        }
+        length = Math.max(length, count);
+    }
+    
+    /**
+     * Mixes all inputs and writes the result to the provided buffer. If no
+     * inputs were added, silence is written instead.
+     *
+     * @param target Buffer to write the mixed samples to.
+     */
+    void mix(@Nonnull ShortBuffer target) {
+        var out = output;
+        if(inputCount == 0) {
+            Arrays.fill(out, (short) 0);
+            target.put(out);
+            return;
+        }
+        mixInto(out);
+        target.put(out, 0, length);
+    }
+    
+    private void mixInto(short[] out) {
+        var len = length;
+        var in = inputs;
+        var n = inputCount;
+        if(out != in[0]) {
+            System.arraycopy(in[0], 0, out, 0, len);
+        }
+        for(var j = 1; j < n; j++) {
+            var s = in[j];
+            for(var i = 0; i < len; i++) {
+                out[i] = mix(out[i], s[i]);
+            }
+        }
+    }
+    
+    //http://atastypixel.com/blog/how-to-mix-audio-samples-properly-on-ios/
+    private static short mix(int a, int b) {
+        var sum = a + b;
+        var product = a * b;
+        //product > 0 iff both samples are non zero and have the same sign
+        if(product > 0) {
+            sum -= product / (a < 0 ? Short.MIN_VALUE : Short.MAX_VALUE);
+        }
+        return (short) sum;
+    }
+}
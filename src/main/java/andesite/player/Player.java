@@ -2,13 +2,18 @@ package andesite.player;
 
 import andesite.Andesite;
 import andesite.NodeState;
+import andesite.event.EncodedEvent;
 import andesite.player.filter.FilterChainConfiguration;
 import andesite.send.AudioProvider;
 import andesite.util.LazyInit;
+import andesite.util.RequestUtils;
+import andesite.util.TimerWheel;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEvent;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import io.vertx.core.Context;
 import io.vertx.core.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,17 +30,25 @@ import java.util.function.Consumer;
 public class Player implements AndesitePlayer {
     private static final Logger log = LoggerFactory.getLogger(Player.class);
     
-    private final FrameLossTracker frameLossTracker = new FrameLossTracker();
-    private final Map<Object, EventEmitter> emitters = new ConcurrentHashMap<>();
+    private final Map<Object, Consumer<EncodedEvent>> listeners = new ConcurrentHashMap<>();
     private final FilterChainConfiguration filterConfig = new FilterChainConfiguration();
     private final Andesite andesite;
+    /* context of the request that created this player, where its state is changed */
+    private final Context context;
     private final AudioPlayerManager audioPlayerManager;
     private final LazyInit<TrackMixer> mixer;
     private final String guildId;
     private final String userId;
+    private final long guildIdLong;
+    private final long userIdLong;
     private final AudioPlayer audioPlayer;
-    private final long updateTimerId;
-    private final long cleanupTimerId;
+    private final EventEmitter emitter;
+    private final TimerWheel.Timeout updateTimer;
+    private final TimerWheel.Timeout cleanupTimer;
+    private final FrameLossTracker frameLossTracker;
+    /* null if adaptive buffering is disabled */
+    private final FrameBufferBudget.Buffer frameBuffer;
+    private final NodeStatsAggregator stats;
     
     /**
      * This is called fast because it avoids reencoding audio when the source is opus,
@@ -44,38 +57,60 @@ public class Player implements AndesitePlayer {
     private final AudioProvider fastProvider;
     private volatile AudioProvider realProvider;
     private volatile AudioProvider switchWhenReady;
+    private volatile Broadcast.Subscription broadcast;
+    /* only accessed by the sending thread, between canProvide() and provide() */
+    private Broadcast.Subscription providingBroadcast;
     
+    /* whether or not this player is counted as playing in the node stats, guarded by this */
+    private boolean countedPlaying;
+    private boolean closed;
     private long lastUse;
     /* lavaplayer position is wrong if you change the speed */
     private double realPositionMs;
     
     public Player(@Nonnull Andesite andesite, @Nonnull String guildId, @Nonnull String userId) {
         this.andesite = andesite;
+        this.context = andesite.vertx().getOrCreateContext();
         this.audioPlayerManager = andesite.audioPlayerManager();
-        this.mixer = new LazyInit<>(() -> new TrackMixer(andesite.pcmAudioPlayerManager(), this));
+        this.stats = andesite.nodeStatsAggregator();
+        this.frameLossTracker = new FrameLossTracker(andesite.frameClock(), stats);
+        this.mixer = new LazyInit<>(() -> new TrackMixer(andesite.pcmAudioPlayerManager(), this, andesite.frameClock(),
+                stats, andesite.frameBufferBudget(), andesite.bufferPool()));
         this.guildId = guildId;
         this.userId = userId;
+        this.guildIdLong = Long.parseUnsignedLong(guildId);
+        this.userIdLong = Long.parseUnsignedLong(userId);
         this.audioPlayer = audioPlayerManager.createPlayer();
-        this.audioPlayer.addListener(event -> emitters.values().forEach(e -> e.onEvent(event)));
+        this.emitter = new EventEmitter(this, listeners);
+        this.audioPlayer.addListener(emitter);
         this.audioPlayer.addListener(frameLossTracker);
+        this.frameBuffer = andesite.frameBufferBudget().register(audioPlayer, frameLossTracker,
+                audioPlayerManager.getConfiguration().getOutputFormat());
         var audioConfig = audioPlayerManager.getConfiguration();
         this.fastProvider = andesite.config().getBoolean("andesite.lavaplayer.non-allocating") ?
-                new NonAllocatingProvider(audioPlayer, audioConfig) :
+                new NonAllocatingProvider(audioPlayer, audioConfig, andesite.bufferPool()) :
                 new AllocatingProvider(audioPlayer, audioConfig);
         this.realProvider = fastProvider;
-        this.updateTimerId = andesite.vertx().setPeriodic(5000, __ -> {
-            if(audioPlayer.getPlayingTrack() == null) return;
-            emitters.values().forEach(EventEmitter::sendPlayerUpdate);
+        this.updateTimer = andesite.timerWheel(guildIdLong).schedulePeriodic(5, TimeUnit.SECONDS, () -> {
+            if(audioPlayer.getPlayingTrack() == null && !isBroadcasting()) return;
+            emitter.sendPlayerUpdate();
         });
-        this.cleanupTimerId = andesite.vertx().setPeriodic(30_000, __ -> {
+        this.cleanupTimer = andesite.timerWheel(guildIdLong).schedulePeriodic(30, TimeUnit.SECONDS, () -> {
             var now = System.nanoTime();
-            var regularPlaying = audioPlayer.getPlayingTrack() != null && !audioPlayer.isPaused();
+            var regularPlaying = isPlaying();
             var mixerPlaying = mixer.isPresent() && anyPlaying(mixer.get().players().values());
             if((regularPlaying || mixerPlaying) && now > lastUse + TimeUnit.SECONDS.toNanos(60)) {
                 andesite.requestHandler().destroy(userId, guildId, true);
             }
         });
         audioPlayer.addListener(new AudioEventAdapter() {
+            @Override
+            public void onEvent(AudioEvent event) {
+                super.onEvent(event);
+                updatePlaying();
+                andesite.playerJournal().changed(Player.this);
+            }
+            
             @Override
             public void onTrackStart(AudioPlayer player, AudioTrack track) {
                 realPositionMs = track.getPosition();
@@ -104,6 +139,28 @@ public class Player implements AndesitePlayer {
         return guildId;
     }
     
+    /**
+     * Returns the context this player was created on. Requests changing this player run there,
+     * so work reading its whole state should too.
+     *
+     * @return The context of this player.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Context context() {
+        return context;
+    }
+    
+    @CheckReturnValue
+    public long userIdLong() {
+        return userIdLong;
+    }
+    
+    @CheckReturnValue
+    public long guildIdLong() {
+        return guildIdLong;
+    }
+    
     @Nonnull
     @Override
     public FrameLossCounter frameLossCounter() {
@@ -136,23 +193,56 @@ public class Player implements AndesitePlayer {
         var obj = new JsonObject()
                 .put("time", Instant.now().toEpochMilli())
                 .put("paused", audioPlayer.isPaused())
-                .put("volume", audioPlayer.getVolume())
+                .put("volume", filterConfig.playerVolume())
                 .put("filters", filterConfig.encode())
+                .put("transcoding", transcoding())
                 .put("mixer", mixerStats)
                 .put("mixerEnabled", m.isPresent() && m.get() == realProvider)
                 .put("frame", new JsonObject()
-                        .put("loss", frameLossTracker.lastMinuteLoss().sum())
-                        .put("success", frameLossTracker.lastMinuteSuccess().sum())
+                        .put("loss", frameLossTracker.lastMinuteLossSum())
+                        .put("success", frameLossTracker.lastMinuteSuccessSum())
                         .put("usable", frameLossTracker.isDataUsable())
                 );
-        var track = audioPlayer.getPlayingTrack();
-        if(track != null) {
+        var b = broadcast;
+        obj.put("broadcast", b != null);
+        if(b != null) {
+            if(b.playing()) {
+                obj.put("position", b.position());
+            }
+        } else if(audioPlayer.getPlayingTrack() != null) {
             obj.put("position", (long)realPositionMs);
         }
-    
+        
         return obj;
     }
     
+    /**
+     * Encodes the state of this player along with the tracks of it and its mixer players, enough
+     * to recreate it after a restart or on another node.
+     *
+     * @return A json object containing the state and tracks of this player.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public JsonObject encodeSnapshot() {
+        var state = encodeState();
+        var b = broadcast;
+        //broadcast subscribers play the track of the broadcast, at the position already in the state
+        var track = b != null ? b.track() : audioPlayer.getPlayingTrack();
+        state.put("track", track == null ? null : RequestUtils.trackString(audioPlayerManager, track));
+        state.put("savedAt", System.currentTimeMillis());
+        var mixerStates = state.getJsonObject("mixer");
+        if(mixerStates != null && !mixerStates.isEmpty()) {
+            mixer().players().forEach((key, p) -> {
+                var s = mixerStates.getJsonObject(key);
+                if(s == null) return;
+                var t = p.audioPlayer().getPlayingTrack();
+                s.put("track", t == null ? null : RequestUtils.trackString(audioPlayerManager, t));
+            });
+        }
+        return state;
+    }
+    
     @Nonnull
     @CheckReturnValue
     public AudioPlayerManager audioPlayerManager() {
@@ -161,19 +251,104 @@ public class Player implements AndesitePlayer {
     
     @Nonnull
     @CheckReturnValue
-    public Map<Object, EventEmitter> eventListeners() {
-        return emitters;
+    public Map<Object, Consumer<EncodedEvent>> eventListeners() {
+        return listeners;
     }
     
+    /**
+     * Registers a listener that receives a copy of every event payload.
+     *
+     * @param key  Key of the listener, used for removal.
+     * @param sink Listener to register.
+     */
     public void setListener(@Nonnull Object key, @Nonnull Consumer<JsonObject> sink) {
-        emitters.put(key, new EventEmitter(this, sink));
+        listeners.put(key, event -> sink.accept(event.payload().copy()));
+    }
+    
+    /**
+     * Registers a listener that receives the shared events, which are built and
+     * encoded only once for all listeners.
+     *
+     * @param key  Key of the listener, used for removal.
+     * @param sink Listener to register.
+     */
+    public void setEventListener(@Nonnull Object key, @Nonnull Consumer<EncodedEvent> sink) {
+        listeners.put(key, sink);
     }
     
     @CheckReturnValue
     public boolean isPlaying() {
+        var b = broadcast;
+        if(b != null) {
+            return b.playing();
+        }
         return audioPlayer.getPlayingTrack() != null && !audioPlayer.isPaused();
     }
     
+    @CheckReturnValue
+    public boolean isBroadcasting() {
+        return broadcast != null;
+    }
+    
+    /**
+     * Stops the current track and starts sending audio from the provided broadcast subscription.
+     *
+     * @param subscription Subscription to read audio from.
+     */
+    void joinBroadcast(@Nonnull Broadcast.Subscription subscription) {
+        leaveBroadcast(false);
+        audioPlayer.stopTrack();
+        broadcast = subscription;
+        updatePlaying();
+    }
+    
+    /**
+     * Stops reading audio from a broadcast, if subscribed to one.
+     *
+     * @param resume Whether or not the track should continue on this player's own
+     *               audio player, from the current position.
+     */
+    public void leaveBroadcast(boolean resume) {
+        var b = broadcast;
+        if(b == null) return;
+        broadcast = null;
+        var track = b.leave();
+        if(resume && track != null) {
+            audioPlayer.startTrack(track, false);
+        }
+        updatePlaying();
+    }
+    
+    /**
+     * Detaches this player from a broadcast whose track ended, then sends the end event.
+     *
+     * @param subscription Subscription of the ended broadcast.
+     * @param event        Track end event.
+     */
+    void broadcastEnded(@Nonnull Broadcast.Subscription subscription, @Nonnull AudioEvent event) {
+        if(broadcast == subscription) {
+            broadcast = null;
+        }
+        onBroadcastEvent(event);
+    }
+    
+    void onBroadcastEvent(@Nonnull AudioEvent event) {
+        frameLossTracker.onEvent(event);
+        emitter.onEvent(event);
+        updatePlaying();
+    }
+    
+    /**
+     * Updates the playing player count of the node stats, if this player's state changed.
+     */
+    private synchronized void updatePlaying() {
+        var playing = !closed && isPlaying();
+        if(playing != countedPlaying) {
+            countedPlaying = playing;
+            stats.playingChanged(playing);
+        }
+    }
+    
     @Override
     @Nonnull
     public TrackMixer mixer() {
@@ -202,6 +377,17 @@ public class Player implements AndesitePlayer {
         throw new AssertionError("This state should be impossible");
     }
     
+    /**
+     * Returns whether or not this player decodes and encodes audio, instead of sending the opus
+     * frames of the track as is. The mixer always transcodes.
+     *
+     * @return True if this player is transcoding.
+     */
+    @CheckReturnValue
+    public boolean transcoding() {
+        return mixerState().isUsingMixer() || filterConfig.requiresTranscoding();
+    }
+    
     @Override
     public void switchToMixer() {
         if(realProvider != mixer.get()) {
@@ -220,11 +406,23 @@ public class Player implements AndesitePlayer {
     @Override
     public boolean canProvide() {
         lastUse = System.nanoTime();
+        var b = providingBroadcast = broadcast;
+        if(b != null) {
+            var r = b.canProvide();
+            if(r) {
+                frameLossTracker.onSuccess();
+            } else {
+                frameLossTracker.onFail();
+            }
+            return r;
+        }
         if(switchWhenReady != null && switchWhenReady.canProvide()) {
             log.info("Switching send handler from {} to {} for {}@{}", realProvider, switchWhenReady, userId, guildId);
             realProvider = switchWhenReady;
             switchWhenReady = null;
-            emitters.values().forEach(EventEmitter::sendPlayerUpdate);
+            //mixer players are counted individually in the node stats
+            frameLossTracker.setReporting(realProvider == fastProvider);
+            emitter.sendPlayerUpdate();
             frameLossTracker.onSuccess();
             return true;
         }
@@ -242,21 +440,32 @@ public class Player implements AndesitePlayer {
     @Nonnull
     @Override
     public ByteBuffer provide() {
-        return realProvider.provide();
+        var b = providingBroadcast;
+        return b != null ? b.provide() : realProvider.provide();
     }
     
     @Override
     public void close() {
         realProvider = fastProvider; //ensures we won't call the opus encoder in track mixer after releasing
+        leaveBroadcast(false);
         mixer.getIfPresent()
                 .ifPresent(TrackMixer::close);
         audioPlayer.destroy();
-        andesite.vertx().cancelTimer(updateTimerId);
-        andesite.vertx().cancelTimer(cleanupTimerId);
+        fastProvider.close();
+        updateTimer.cancel();
+        cleanupTimer.cancel();
+        synchronized(this) {
+            closed = true;
+        }
+        updatePlaying();
+        frameLossTracker.release();
+        if(frameBuffer != null) {
+            frameBuffer.release();
+        }
     }
     
     public void onDestroy(boolean cleanup) {
-        emitters.values().forEach(e -> e.onPlayerDestroyed(cleanup));
+        emitter.onPlayerDestroyed(cleanup);
     }
     
     public void seek(long ms) {
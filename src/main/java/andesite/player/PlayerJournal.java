@@ -0,0 +1,320 @@
+package andesite.player;
+
+import andesite.Andesite;
+import andesite.util.LongPairMap;
+import com.typesafe.config.Config;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of player states, used to recover playback after a restart.
+ *
+ * <br>Requests and track events mark players as changed, and every {@code flush-interval} the
+ * changed players are appended to a memory mapped file, as their encoded state plus the encoded
+ * tracks. Snapshots are encoded on the {@link Player#context() context} of each player, which is
+ * where its state changes, and only written by the journal thread. When the file fills up, and every {@code compact-interval}, it's rewritten with only
+ * the latest record of each player.
+ *
+ * <br>Records found on startup are kept as pending until a voice server update arrives for the
+ * player, which then restores it, or until {@code restore-timeout} passes.
+ */
+public class PlayerJournal {
+    private static final Logger log = LoggerFactory.getLogger(PlayerJournal.class);
+    private static final int MAGIC = 0x414e4a31; //ANJ1
+    //length, checksum, type, user id, guild id
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 1 + 8 + 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte[] EMPTY = new byte[0];
+    
+    private final Set<Player> changed = ConcurrentHashMap.newKeySet();
+    private final Queue<Player> removed = new ConcurrentLinkedQueue<>();
+    private final LongPairMap<Entry> pending = new LongPairMap<>();
+    /* latest record of every player, written only by the journal thread */
+    private final LongPairMap<Entry> latest = new LongPairMap<>();
+    private final CRC32 crc = new CRC32();
+    private final Andesite andesite;
+    private final boolean enabled;
+    private final Path path;
+    private final int maxSize;
+    private final ScheduledExecutorService executor;
+    private volatile boolean hasPending;
+    private MappedByteBuffer buffer;
+    
+    public PlayerJournal(@Nonnull Andesite andesite, @Nonnull Config config) throws IOException {
+        this.andesite = andesite;
+        this.enabled = config.getBoolean("enabled");
+        this.path = Path.of(config.getString("path")).toAbsolutePath();
+        this.maxSize = (int)Math.min(Integer.MAX_VALUE, config.getBytes("max-size"));
+        if(!enabled) {
+            this.executor = null;
+            return;
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "andesite-journal");
+            t.setDaemon(true);
+            return t;
+        });
+        load();
+        compact();
+        log.info("Loaded {} players from journal {}", pending.size(), path);
+        
+        var flushInterval = config.getDuration("flush-interval", TimeUnit.MILLISECONDS);
+        var compactInterval = config.getDuration("compact-interval", TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(() -> run(() -> flush(false)), flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(() -> run(this::compact), compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+        executor.schedule(() -> run(this::expirePending),
+                config.getDuration("restore-timeout", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                //event loops might already be stopped, so snapshots are encoded here
+                executor.submit(() -> run(() -> flush(true))).get(5, TimeUnit.SECONDS);
+            } catch(Exception e) {
+                log.error("Error flushing journal on shutdown", e);
+            }
+        }, "andesite-journal-shutdown"));
+    }
+    
+    @CheckReturnValue
+    public boolean enabled() {
+        return enabled;
+    }
+    
+    /**
+     * Marks a player as changed, to be written on the next flush. Also discards the pending
+     * state for it, since the client is controlling it again.
+     *
+     * @param player Player that changed.
+     */
+    public void changed(@Nonnull Player player) {
+        if(!enabled) return;
+        changed.add(player);
+        if(hasPending) {
+            pending.remove(player.userIdLong(), player.guildIdLong());
+        }
+    }
+    
+    /**
+     * Marks a player as destroyed, removing it from the journal on the next flush.
+     *
+     * @param player Player that was destroyed.
+     */
+    public void removed(@Nonnull Player player) {
+        if(!enabled) return;
+        changed.remove(player);
+        removed.add(player);
+    }
+    
+    /**
+     * Removes and returns the state loaded on startup for a player, if it wasn't restored or
+     * discarded yet.
+     *
+     * @param userId  User id of the player.
+     * @param guildId Guild id of the player.
+     *
+     * @return The state of the player, or null if there's none.
+     */
+    @Nullable
+    @CheckReturnValue
+    public JsonObject takePending(long userId, long guildId) {
+        if(!hasPending) return null;
+        var entry = pending.remove(userId, guildId);
+        return entry == null ? null : Buffer.buffer(entry.payload).toJsonObject();
+    }
+    
+    private void run(Runnable action) {
+        try {
+            action.run();
+        } catch(Exception e) {
+            log.error("Error updating journal {}", path, e);
+        }
+    }
+    
+    private void flush(boolean inline) {
+        Player player;
+        while((player = removed.poll()) != null) {
+            var uid = player.userIdLong();
+            var gid = player.guildIdLong();
+            if(latest.remove(uid, gid) != null) {
+                append(REMOVE, uid, gid, EMPTY);
+            }
+        }
+        for(var it = changed.iterator(); it.hasNext(); ) {
+            var p = it.next();
+            it.remove();
+            if(inline) {
+                var payload = encode(p);
+                if(payload != null) {
+                    store(p, payload);
+                }
+                continue;
+            }
+            p.context().runOnContext(__ -> {
+                var payload = encode(p);
+                if(payload != null) {
+                    executor.execute(() -> run(() -> store(p, payload)));
+                }
+            });
+        }
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    private static byte[] encode(@Nonnull Player player) {
+        try {
+            return player.encodeSnapshot().toBuffer().getBytes();
+        } catch(Exception e) {
+            log.warn("Unable to encode state of player for user {} in guild {}",
+                    player.userId(), player.guildId(), e);
+            return null;
+        }
+    }
+    
+    //must be called by the journal thread
+    private void store(@Nonnull Player player, @Nonnull byte[] payload) {
+        var uid = player.userIdLong();
+        var gid = player.guildIdLong();
+        //closing a destroyed player fires track events after it was removed
+        if(andesite.getExistingPlayer(uid, gid) != player) return;
+        put(latest, new Entry(uid, gid, payload));
+        append(PUT, uid, gid, payload);
+    }
+    
+    private void append(byte type, long userId, long guildId, byte[] payload) {
+        if(write(buffer, type, userId, guildId, payload)) return;
+        //the latest state of this player is already in memory and will be kept
+        compact();
+    }
+    
+    private boolean write(ByteBuffer buffer, byte type, long userId, long guildId, byte[] payload) {
+        if(buffer.remaining() < RECORD_HEADER_SIZE + payload.length) {
+            return false;
+        }
+        var start = buffer.position();
+        buffer.putInt(payload.length).putInt(0).put(type).putLong(userId).putLong(guildId).put(payload);
+        crc.reset();
+        crc.update(buffer.duplicate().limit(buffer.position()).position(start + 8));
+        //written last, so a partially written record never looks valid
+        buffer.putInt(start + 4, (int)crc.getValue());
+        return true;
+    }
+    
+    private void compact() {
+        var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        MappedByteBuffer map;
+        try(var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, maxSize);
+        } catch(IOException e) {
+            throw new IllegalStateException("Unable to create journal " + tmp, e);
+        }
+        map.putInt(MAGIC);
+        var dropped = 0;
+        for(var entry : latest.values()) {
+            if(!write(map, PUT, entry.userId, entry.guildId, entry.payload)) {
+                dropped++;
+            }
+        }
+        if(dropped > 0) {
+            log.warn("Journal {} is full, {} players were not saved. Consider increasing journal.max-size",
+                    path, dropped);
+        }
+        map.force();
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            throw new IllegalStateException("Unable to replace journal " + path, e);
+        }
+        //the mapping stays valid after the move
+        this.buffer = map;
+    }
+    
+    private void load() throws IOException {
+        if(!Files.exists(path)) return;
+        try(var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(map.remaining() < 4 || map.getInt() != MAGIC) {
+                log.warn("Ignoring journal {} with unknown format", path);
+                return;
+            }
+            while(map.remaining() >= RECORD_HEADER_SIZE) {
+                var start = map.position();
+                var length = map.getInt();
+                var checksum = map.getInt();
+                if(length < 0 || length > map.remaining() - (RECORD_HEADER_SIZE - 8)) break;
+                crc.reset();
+                crc.update(map.duplicate().limit(start + RECORD_HEADER_SIZE + length).position(start + 8));
+                if((int)crc.getValue() != checksum) break;
+                var type = map.get();
+                var userId = map.getLong();
+                var guildId = map.getLong();
+                var payload = new byte[length];
+                map.get(payload);
+                if(type == PUT) {
+                    put(latest, new Entry(userId, guildId, payload));
+                } else if(type == REMOVE) {
+                    latest.remove(userId, guildId);
+                } else {
+                    break;
+                }
+            }
+        }
+        latest.forEach(entry -> put(pending, entry));
+        hasPending = pending.size() > 0;
+    }
+    
+    private void expirePending() {
+        hasPending = false;
+        var expired = 0;
+        for(var entry : pending.values()) {
+            if(pending.remove(entry.userId, entry.guildId) == null) continue;
+            expired++;
+            //only if it wasn't written again since startup
+            if(latest.get(entry.userId, entry.guildId) == entry) {
+                latest.remove(entry.userId, entry.guildId);
+                append(REMOVE, entry.userId, entry.guildId, EMPTY);
+            }
+        }
+        if(expired > 0) {
+            log.info("Discarded {} journaled players that weren't restored", expired);
+        }
+    }
+    
+    private static void put(LongPairMap<Entry> map, Entry entry) {
+        map.put(entry.userId, entry.guildId, entry);
+    }
+    
+    private static class Entry {
+        final long userId;
+        final long guildId;
+        final byte[] payload;
+        
+        Entry(long userId, long guildId, byte[] payload) {
+            this.userId = userId;
+            this.guildId = guildId;
+            this.payload = payload;
+        }
+    }
+}
@@ -21,20 +21,38 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class TrackMixer implements AndesiteTrackMixer {
+    private static final int PCM_SIZE = StandardAudioDataFormats.DISCORD_PCM_S16_BE.maximumChunkSize();
+    private static final int OPUS_SIZE = StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize();
+    
     private final Map<String, Player> players = new ConcurrentHashMap<>();
-    private final ShortBuffer mixBuffer = ByteBuffer.allocateDirect(StandardAudioDataFormats.DISCORD_PCM_S16_BE.maximumChunkSize())
-            .order(ByteOrder.nativeOrder())
-            .asShortBuffer();
-    private final ByteBuffer outputBuffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+    private final PcmMixer pcmMixer = new PcmMixer(PCM_SIZE / 2, 4);
     
     private final AudioPlayerManager playerManager;
     private final AndesitePlayer parent;
+    private final FrameClock clock;
+    private final NodeStatsAggregator stats;
+    private final FrameBufferBudget bufferBudget;
+    private final BufferPool pool;
     private final OpusChunkEncoder encoder;
+    /* leased while any player provides audio, only accessed by the sending thread until closed */
+    private ByteBuffer mixBytes;
+    private ShortBuffer mixBuffer;
+    private ByteBuffer outputBuffer;
+    /* buffers of the current frame, kept even if close() releases them concurrently */
+    private ShortBuffer providingMix;
+    private ByteBuffer providingOutput;
+    private int idleFrames;
+    private boolean closed;
     
-    public TrackMixer(AudioPlayerManager playerManager, AndesitePlayer parent) {
+    public TrackMixer(AudioPlayerManager playerManager, AndesitePlayer parent, FrameClock clock,
+                      NodeStatsAggregator stats, FrameBufferBudget bufferBudget, BufferPool pool) {
         this.playerManager = playerManager;
         this.encoder = new OpusChunkEncoder(playerManager.getConfiguration(), StandardAudioDataFormats.DISCORD_OPUS);
         this.parent = parent;
+        this.clock = clock;
+        this.stats = stats;
+        this.bufferBudget = bufferBudget;
+        this.pool = pool;
     }
     
     @Nonnull
@@ -48,7 +66,7 @@ public class TrackMixer implements AndesiteTrackMixer {
     @CheckReturnValue
     @Override
     public Player getPlayer(@Nonnull String key) {
-        return players.computeIfAbsent(key, k -> new Player(playerManager.createPlayer(), parent, k));
+        return players.computeIfAbsent(key, k -> new Player(playerManager, parent, k, clock, stats, bufferBudget, pool));
     }
     
     @Override
@@ -60,7 +78,7 @@ public class TrackMixer implements AndesiteTrackMixer {
     public void removePlayer(@Nonnull String key) {
         var p = players.remove(key);
         if(p != null) {
-            p.player.destroy();
+            p.destroy();
         }
     }
     
@@ -72,71 +90,109 @@ public class TrackMixer implements AndesiteTrackMixer {
             v |= p.tryProvide();
         }
         players.values().removeIf(p -> {
-            var notPlaying = p.player.getPlayingTrack() == null && p.framesWithoutProvide > 250; //5 seconds
+            var notPlaying = p.player.getPlayingTrack() == null && p.framesWithoutProvide > BufferPool.IDLE_FRAMES;
             if(notPlaying) {
-                p.player.destroy();
+                p.destroy();
             }
             return notPlaying;
         });
-        return v;
+        if(v) {
+            idleFrames = 0;
+            if(mixBytes == null && !leaseBuffers()) return false;
+            var m = mixBuffer;
+            var o = outputBuffer;
+            if(m == null || o == null) return false;
+            providingMix = m;
+            providingOutput = o;
+            return true;
+        }
+        if(mixBytes != null && ++idleFrames >= BufferPool.IDLE_FRAMES) {
+            releaseBuffers(false);
+        }
+        return false;
     }
     
     @CheckReturnValue
     @Nonnull
     @Override
     public ByteBuffer provide() {
-        var buffer = mixBuffer; //avoid getfield opcode
-        buffer.clear().position(0);
+        var buffer = providingMix; //avoid getfield opcode
+        var output = providingOutput;
+        var mixer = pcmMixer;
+        buffer.clear();
+        mixer.reset();
         for(var p : players.values()) {
             if(p.provided) {
-                var s = p.buffer.position(0).asShortBuffer();
-                
-                //http://atastypixel.com/blog/how-to-mix-audio-samples-properly-on-ios/
-                for(int i = 0; i < s.capacity(); i++) {
-                    var a = buffer.get(i);
-                    var b = s.get(i);
-                    if(a < 0 && b < 0) {
-                        buffer.put(i, (short) ((a + b) - ((a * b) / Short.MIN_VALUE)));
-                    } else if(a > 0 && b > 0) {
-                        buffer.put(i, (short) ((a + b) - ((a * b) / Short.MAX_VALUE)));
-                    } else {
-                        buffer.put(i, (short) (a + b));
-                    }
-                }
+                mixer.add(p.providedBuffer.position(0).asShortBuffer());
             }
         }
+        mixer.mix(buffer);
         buffer.flip();
         
-        encoder.encode(buffer, outputBuffer.position(0).limit(outputBuffer.capacity()));
+        encoder.encode(buffer, output.position(0).limit(output.capacity()));
         buffer.flip();
-        return outputBuffer;
+        return output;
     }
     
     @Override
     public void close() {
-        players.values().forEach(p -> p.player.destroy());
+        players.values().forEach(Player::destroy);
         encoder.close();
+        releaseBuffers(true);
+    }
+    
+    private synchronized boolean leaseBuffers() {
+        if(closed) return false;
+        mixBytes = pool.lease(PCM_SIZE);
+        mixBuffer = mixBytes.order(ByteOrder.nativeOrder()).asShortBuffer();
+        outputBuffer = pool.lease(OPUS_SIZE);
+        return true;
+    }
+    
+    private synchronized void releaseBuffers(boolean close) {
+        closed |= close;
+        var m = mixBytes;
+        var o = outputBuffer;
+        if(m == null) return;
+        mixBytes = null;
+        mixBuffer = null;
+        outputBuffer = null;
+        if(close) {
+            pool.releaseDeferred(m);
+            pool.releaseDeferred(o);
+        } else {
+            pool.release(m);
+            pool.release(o);
+        }
     }
     
     public static class Player implements MixerPlayer {
-        private final ByteBuffer buffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_PCM_S16_BE.maximumChunkSize())
-                .order(ByteOrder.BIG_ENDIAN);
         private final MutableAudioFrame frame = new MutableAudioFrame();
-        private final FrameLossTracker frameLossTracker = new FrameLossTracker();
         private final FilterChainConfiguration filterConfig = new FilterChainConfiguration();
         private final AudioPlayer player;
         private final AndesitePlayer parent;
         private final String key;
+        private final FrameLossTracker frameLossTracker;
+        private final FrameBufferBudget.Buffer frameBuffer;
+        private final BufferPool pool;
+        /* leased while playing, only accessed by the sending thread until destroyed */
+        private ByteBuffer buffer;
+        /* buffer of the last provided frame, read by the mixer */
+        private ByteBuffer providedBuffer;
+        private boolean destroyed;
         private boolean provided;
         private int framesWithoutProvide;
         private double realPositionMs;
         
-        Player(AudioPlayer player, AndesitePlayer parent, String key) {
-            this.player = player;
+        Player(AudioPlayerManager playerManager, AndesitePlayer parent, String key, FrameClock clock,
+               NodeStatsAggregator stats, FrameBufferBudget bufferBudget, BufferPool pool) {
+            this.player = playerManager.createPlayer();
             this.parent = parent;
             this.key = key;
-            frame.setBuffer(buffer);
-            buffer.limit(frame.getDataLength());
+            this.frameLossTracker = new FrameLossTracker(clock, stats);
+            this.frameBuffer = bufferBudget.register(player, frameLossTracker,
+                    playerManager.getConfiguration().getOutputFormat());
+            this.pool = pool;
             this.player.addListener(frameLossTracker);
             this.player.addListener(new AudioEventAdapter() {
                 @Override
@@ -146,19 +202,56 @@ public class TrackMixer implements AndesiteTrackMixer {
             });
         }
         
+        void destroy() {
+            player.destroy();
+            frameLossTracker.release();
+            if(frameBuffer != null) {
+                frameBuffer.release();
+            }
+            releaseBuffer(true);
+        }
+        
         boolean tryProvide() {
-            provided = player.provide(frame);
+            var b = buffer;
+            if(b == null && player.getPlayingTrack() != null && !player.isPaused()) {
+                b = leaseBuffer();
+            }
+            provided = b != null && player.provide(frame);
             if(provided) {
+                providedBuffer = b;
                 framesWithoutProvide = 0;
                 frameLossTracker.onSuccess();
                 realPositionMs = andesite.player.Player.updatePosition(realPositionMs, filterConfig);
             } else {
                 framesWithoutProvide++;
                 frameLossTracker.onFail();
+                if(framesWithoutProvide >= BufferPool.IDLE_FRAMES) {
+                    releaseBuffer(false);
+                }
             }
             return provided;
         }
         
+        private synchronized ByteBuffer leaseBuffer() {
+            if(destroyed) return null;
+            var b = buffer = pool.lease(PCM_SIZE);
+            frame.setBuffer(b);
+            b.limit(frame.getDataLength());
+            return b;
+        }
+        
+        private synchronized void releaseBuffer(boolean destroy) {
+            destroyed |= destroy;
+            var b = buffer;
+            if(b == null) return;
+            buffer = null;
+            if(destroy) {
+                pool.releaseDeferred(b);
+            } else {
+                pool.release(b);
+            }
+        }
+        
         @Nonnull
         @Override
         public NodeState node() {
@@ -205,11 +298,11 @@ public class TrackMixer implements AndesiteTrackMixer {
                     .put("time", String.valueOf(Instant.now().toEpochMilli()))
                     .put("position", track == null ? null : (long)realPositionMs)
                     .put("paused", player.isPaused())
-                    .put("volume", player.getVolume())
+                    .put("volume", filterConfig.playerVolume())
                     .put("filters", filterConfig.encode())
                     .put("frame", new JsonObject()
-                            .put("loss", frameLossTracker.lastMinuteLoss().sum())
-                            .put("success", frameLossTracker.lastMinuteSuccess().sum())
+                            .put("loss", frameLossTracker.lastMinuteLossSum())
+                            .put("success", frameLossTracker.lastMinuteSuccessSum())
                             .put("usable", frameLossTracker.isDataUsable())
                     );
         }
@@ -225,7 +318,7 @@ public class TrackMixer implements AndesiteTrackMixer {
         public String key() {
             return key;
         }
-    
+        
         public void seek(long ms) {
             var track = player.getPlayingTrack();
             if(track != null) {
@@ -0,0 +1,92 @@
+package andesite.send.fake;
+
+import andesite.Andesite;
+import andesite.send.AudioHandler;
+import andesite.send.AudioProvider;
+import andesite.util.LongPairMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audio handler that doesn't connect anywhere, used to measure how many players a node can
+ * sustain without real voice connections.
+ *
+ * <br>Voice server updates are ignored, and every player with a provider is polled by a sender
+ * thread every 20ms, like a real connection would be. The sent data is discarded. Frame deficit,
+ * provide latency, allocation rate and cpu usage are logged every {@code fake.report-interval}.
+ */
+public class FakeAudioHandler implements AudioHandler {
+    private static final Logger log = LoggerFactory.getLogger(FakeAudioHandler.class);
+    
+    private final LongPairMap<FakeSender.Connection> connections = new LongPairMap<>();
+    private final FakeSender[] senders;
+    private int nextSender;
+    
+    public FakeAudioHandler(Andesite andesite) {
+        var config = andesite.config().getConfig("andesite.fake");
+        var threads = config.getInt("threads");
+        if(threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        var reportInterval = config.getDuration("report-interval", TimeUnit.NANOSECONDS);
+        var reporter = new FakeReporter(threads);
+        var origin = System.nanoTime();
+        this.senders = new FakeSender[threads];
+        for(var i = 0; i < threads; i++) {
+            senders[i] = new FakeSender(i, origin, reportInterval, reporter);
+            senders[i].start();
+        }
+        log.warn("Using fake audio handler with {} sender threads, no audio will be sent to discord", threads);
+    }
+    
+    @Override
+    public void setProvider(@Nonnull String userId, @Nonnull String guildId, @Nullable AudioProvider provider) {
+        setProvider(Long.parseUnsignedLong(userId), Long.parseUnsignedLong(guildId), provider);
+    }
+    
+    @Override
+    public synchronized void setProvider(long userId, long guildId, @Nullable AudioProvider provider) {
+        var conn = connections.get(userId, guildId);
+        if(conn == null) {
+            if(provider == null) return;
+            //spread connections evenly across the senders
+            var sender = senders[nextSender];
+            nextSender = (nextSender + 1) % senders.length;
+            conn = new FakeSender.Connection(sender);
+            connections.put(userId, guildId, conn);
+            sender.add(conn);
+        }
+        var old = conn.provider;
+        conn.provider = provider;
+        if(old != null && old != provider) {
+            old.close();
+        }
+    }
+    
+    @Override
+    public void handleVoiceUpdate(@Nonnull String userId, @Nonnull String guildId, @Nonnull String sessionId,
+                                  @Nonnull String endpoint, @Nonnull String token) {
+        //nothing to connect to
+    }
+    
+    @Override
+    public void closeConnection(@Nonnull String userId, @Nonnull String guildId) {
+        closeConnection(Long.parseUnsignedLong(userId), Long.parseUnsignedLong(guildId));
+    }
+    
+    @Override
+    public synchronized void closeConnection(long userId, long guildId) {
+        var conn = connections.remove(userId, guildId);
+        if(conn != null) {
+            conn.sender.remove(conn);
+            var provider = conn.provider;
+            if(provider != null) {
+                provider.close();
+            }
+        }
+    }
+}
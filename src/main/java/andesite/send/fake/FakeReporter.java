@@ -0,0 +1,183 @@
+package andesite.send.fake;
+
+import io.prometheus.client.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Combines the intervals reported by all senders, logging and exporting the results once every
+ * sender reported.
+ */
+class FakeReporter {
+    private static final Logger log = LoggerFactory.getLogger(FakeReporter.class);
+    private static final Gauge PLAYERS = Gauge.build()
+            .namespace("andesite")
+            .name("fake_players")
+            .help("Players polled by the fake audio handler")
+            .register();
+    private static final Gauge FRAME_DEFICIT = Gauge.build()
+            .namespace("andesite")
+            .name("fake_frame_deficit_ratio")
+            .help("Fraction of expected frames not sent in the last report interval")
+            .register();
+    private static final Gauge PROVIDE_LATENCY = Gauge.build()
+            .namespace("andesite")
+            .name("fake_provide_latency_seconds")
+            .help("Latency of canProvide + provide in the last report interval")
+            .labelNames("quantile")
+            .register();
+    private static final Gauge ALLOCATION_RATE = Gauge.build()
+            .namespace("andesite")
+            .name("fake_allocation_bytes_per_second")
+            .help("Allocation rate in the last report interval")
+            .labelNames("threads")
+            .register();
+    private static final Gauge CPU_PER_PLAYER = Gauge.build()
+            .namespace("andesite")
+            .name("fake_cpu_per_player_ratio")
+            .help("Cpu time used per player per second of wall time in the last report interval")
+            .labelNames("threads")
+            .register();
+    
+    private final List<Interval> pending = new ArrayList<>();
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final int senders;
+    private long lastProcessCpu;
+    private long lastProcessAllocated;
+    
+    FakeReporter(int senders) {
+        this.senders = senders;
+        this.lastProcessCpu = os.getProcessCpuTime();
+        this.lastProcessAllocated = processAllocatedBytes();
+    }
+    
+    synchronized void submit(Interval interval) {
+        pending.add(interval);
+        if(pending.size() < senders) return;
+        var total = new Interval();
+        for(var i : pending) {
+            total.add(i);
+        }
+        total.durationNanos /= pending.size();
+        pending.clear();
+        report(total);
+    }
+    
+    private void report(Interval total) {
+        var seconds = total.durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        var processCpu = os.getProcessCpuTime();
+        var processAllocated = processAllocatedBytes();
+        var processCpuDelta = processCpu - lastProcessCpu;
+        //threads that died since the last report are missing from the sum
+        var processAllocatedDelta = Math.max(0, processAllocated - lastProcessAllocated);
+        lastProcessCpu = processCpu;
+        lastProcessAllocated = processAllocated;
+        
+        var expected = total.expectedFrames + total.missedFrames;
+        var deficit = expected == 0 ? 0 : (expected - total.sentFrames) / (double) expected;
+        var p50 = total.latencyPercentile(0.50);
+        var p99 = total.latencyPercentile(0.99);
+        var p999 = total.latencyPercentile(0.999);
+        var senderCpu = total.players == 0 ? 0 : total.senderCpuNanos / 1e9 / seconds / total.players;
+        var processCpuPerPlayer = total.players == 0 ? 0 : processCpuDelta / 1e9 / seconds / total.players;
+        
+        PLAYERS.set(total.players);
+        FRAME_DEFICIT.set(deficit);
+        PROVIDE_LATENCY.labels("0.5").set(p50 / 1e9);
+        PROVIDE_LATENCY.labels("0.99").set(p99 / 1e9);
+        PROVIDE_LATENCY.labels("0.999").set(p999 / 1e9);
+        ALLOCATION_RATE.labels("sender").set(total.senderAllocatedBytes / seconds);
+        ALLOCATION_RATE.labels("all").set(processAllocatedDelta / seconds);
+        CPU_PER_PLAYER.labels("sender").set(senderCpu);
+        CPU_PER_PLAYER.labels("all").set(processCpuPerPlayer);
+        
+        log.info("{} players: frames sent={} nulled={} missed={} deficit={}%, provide latency p50={}us p99={}us " +
+                         "p99.9={}us, allocation sender={}KiB/s all={}KiB/s, cpu per player sender={}% all={}%",
+                total.players, total.sentFrames, total.nulledFrames, total.missedFrames,
+                String.format("%.3f", deficit * 100), p50 / 1000, p99 / 1000, p999 / 1000,
+                (long) (total.senderAllocatedBytes / seconds / 1024), (long) (processAllocatedDelta / seconds / 1024),
+                String.format("%.4f", senderCpu * 100), String.format("%.4f", processCpuPerPlayer * 100));
+    }
+    
+    private long processAllocatedBytes() {
+        var sum = 0L;
+        for(var allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if(allocated > 0) sum += allocated;
+        }
+        return sum;
+    }
+    
+    /**
+     * Counters of a sender for one report interval. Only accessed by the sender until submitted.
+     */
+    static class Interval {
+        //1us buckets up to 2ms, then 100us buckets up to ~100ms, then a single overflow bucket
+        private static final int FINE_BUCKETS = 2000;
+        private static final int COARSE_BUCKETS = 1000;
+        private static final int COARSE_WIDTH = 100;
+        
+        private final int[] latency = new int[FINE_BUCKETS + COARSE_BUCKETS + 1];
+        long expectedFrames;
+        long sentFrames;
+        long nulledFrames;
+        long missedFrames;
+        long sentBytes;
+        long durationNanos;
+        long senderCpuNanos;
+        long senderAllocatedBytes;
+        int players;
+        
+        void recordLatency(long nanos) {
+            var micros = nanos / 1000;
+            int bucket;
+            if(micros < FINE_BUCKETS) {
+                bucket = (int) micros;
+            } else {
+                bucket = (int) Math.min(FINE_BUCKETS + (micros - FINE_BUCKETS) / COARSE_WIDTH, latency.length - 1);
+            }
+            latency[bucket]++;
+        }
+        
+        //returns the upper bound of the bucket containing the percentile, in nanoseconds
+        long latencyPercentile(double percentile) {
+            var count = 0L;
+            for(var v : latency) {
+                count += v;
+            }
+            if(count == 0) return 0;
+            var target = (long) Math.ceil(count * percentile);
+            var seen = 0L;
+            for(var i = 0; i < latency.length; i++) {
+                seen += latency[i];
+                if(seen >= target) {
+                    var micros = i < FINE_BUCKETS ? i + 1 : FINE_BUCKETS + (long) (i - FINE_BUCKETS + 1) * COARSE_WIDTH;
+                    return micros * 1000;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+        
+        void add(Interval other) {
+            for(var i = 0; i < latency.length; i++) {
+                latency[i] += other.latency[i];
+            }
+            expectedFrames += other.expectedFrames;
+            sentFrames += other.sentFrames;
+            nulledFrames += other.nulledFrames;
+            missedFrames += other.missedFrames;
+            sentBytes += other.sentBytes;
+            durationNanos += other.durationNanos;
+            senderCpuNanos += other.senderCpuNanos;
+            senderAllocatedBytes += other.senderAllocatedBytes;
+            players += other.players;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package andesite.send.fake;
+
+import andesite.send.AudioProvider;
+import andesite.util.FramePacer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Polls the providers of its connections every 20ms and reports what was sent.
+ */
+class FakeSender extends FramePacer<FakeSender.Connection> {
+    private static final Logger log = LoggerFactory.getLogger(FakeSender.class);
+    //after falling this many frames behind, skip the missed frames instead of catching up
+    private static final int MAX_CATCH_UP = 5;
+    
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final long reportInterval;
+    private final FakeReporter reporter;
+    private FakeReporter.Interval interval = new FakeReporter.Interval();
+    private long intervalEnd;
+    private long cpuStart;
+    private long allocatedStart;
+    
+    FakeSender(int index, long origin, long reportInterval, FakeReporter reporter) {
+        super("andesite-fake-sender-" + index, new Connection[0], origin, MAX_CATCH_UP);
+        this.reportInterval = reportInterval;
+        this.reporter = reporter;
+    }
+    
+    @Override
+    protected void started(long deadline) {
+        intervalEnd = deadline + reportInterval;
+        cpuStart = threads.getCurrentThreadCpuTime();
+        allocatedStart = threads.getCurrentThreadAllocatedBytes();
+    }
+    
+    @Override
+    protected void skipped(Connection[] connections, long frames) {
+        interval.missedFrames += frames * connections.length;
+    }
+    
+    @Override
+    protected void tick(Connection[] connections, long deadline) {
+        var i = interval;
+        for(var c : connections) {
+            var provider = c.provider;
+            if(provider == null) continue;
+            i.expectedFrames++;
+            var start = System.nanoTime();
+            try {
+                if(provider.canProvide()) {
+                    i.sentBytes += provider.provide().remaining();
+                    i.sentFrames++;
+                } else {
+                    i.nulledFrames++;
+                }
+            } catch(Throwable t) {
+                i.nulledFrames++;
+                log.error("Error providing audio", t);
+            }
+            i.recordLatency(System.nanoTime() - start);
+        }
+        if(deadline >= intervalEnd) {
+            var cpu = threads.getCurrentThreadCpuTime();
+            var allocated = threads.getCurrentThreadAllocatedBytes();
+            i.players = connections.length;
+            i.durationNanos = reportInterval + deadline - intervalEnd;
+            i.senderCpuNanos = cpu - cpuStart;
+            i.senderAllocatedBytes = allocated - allocatedStart;
+            reporter.submit(i);
+            interval = new FakeReporter.Interval();
+            intervalEnd = deadline + reportInterval;
+            cpuStart = cpu;
+            allocatedStart = allocated;
+        }
+    }
+    
+    static class Connection {
+        final FakeSender sender;
+        volatile AudioProvider provider;
+        
+        Connection(FakeSender sender) {
+            this.sender = sender;
+        }
+    }
+}
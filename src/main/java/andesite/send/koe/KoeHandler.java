@@ -23,19 +23,44 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Audio handler backed by koe.
+ *
+ * <br>Operations on a connection lock one of {@link #STRIPES} locks picked by guild id, so
+ * unrelated guilds don't wait on each other. Connecting to the voice server runs on one of the
+ * connect threads, also picked by guild id so updates for a guild are applied in order.
+ */
 public class KoeHandler implements AudioHandler {
     private static final Logger log = LoggerFactory.getLogger(KoeHandler.class);
+    private static final int STRIPES = 64;
     
-    private final Map<Long, KoeClient> clients = new HashMap<>();
+    private final Map<Long, KoeClient> clients = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[STRIPES];
+    private final ExecutorService[] connectExecutors;
     private final Andesite andesite;
     private final Koe koe;
     
     public KoeHandler(Andesite andesite) {
         this.andesite = andesite;
         var config = andesite.config().getConfig("andesite.koe");
+        for(var i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        var connectThreads = Math.max(1, Math.min(STRIPES, config.getInt("connect-threads")));
+        this.connectExecutors = new ExecutorService[connectThreads];
+        for(var i = 0; i < connectThreads; i++) {
+            var name = "koe-connect-" + i;
+            connectExecutors[i] = Executors.newSingleThreadExecutor(r -> {
+                var t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
         var builder = new KoeBuilder()
                 .setGatewayVersion(GatewayVersion.valueOf(
                         config.getString("gateway").strip().toUpperCase()
@@ -95,7 +120,12 @@ public class KoeHandler implements AudioHandler {
     
     @Override
     public void setProvider(@Nonnull String userId, @Nonnull String guildId, @Nullable AudioProvider provider) {
-        synchronized(this) {
+        setProvider(Long.parseUnsignedLong(userId), Long.parseUnsignedLong(guildId), provider);
+    }
+    
+    @Override
+    public void setProvider(long userId, long guildId, @Nullable AudioProvider provider) {
+        synchronized(locks[stripe(guildId)]) {
             var conn = getConnection(userId, guildId);
             var sender = (KoeProvider)conn.getAudioSender();
             if(sender != null && sender.source == provider) return;
@@ -106,50 +136,90 @@ public class KoeHandler implements AudioHandler {
     
     @Override
     public void handleVoiceUpdate(@Nonnull String userId, @Nonnull String guildId, @Nonnull String sessionId, @Nonnull String endpoint, @Nonnull String token) {
-        synchronized(this) {
-            getConnection(userId, guildId).connect(new VoiceServerInfo(
-                    sessionId, endpoint, token
-            ));
+        var uid = Long.parseUnsignedLong(userId);
+        var gid = Long.parseUnsignedLong(guildId);
+        var info = new VoiceServerInfo(sessionId, endpoint, token);
+        var stripe = stripe(gid);
+        MediaConnection conn;
+        synchronized(locks[stripe]) {
+            conn = getConnection(uid, gid);
         }
+        connectExecutors[stripe % connectExecutors.length].execute(() -> {
+            synchronized(locks[stripe]) {
+                //closed (and maybe recreated) since the update arrived
+                var client = clients.get(uid);
+                if(client == null || client.getConnection(gid) != conn) return;
+            }
+            //connecting may be slow, don't hold up other guilds sharing this stripe
+            try {
+                conn.connect(info);
+            } catch(Exception e) {
+                log.error("Error connecting to voice server for user {} in guild {}",
+                        userId, guildId, e);
+            }
+        });
     }
     
     @Override
     public void closeConnection(@Nonnull String userId, @Nonnull String guildId) {
-        var uid = Long.parseUnsignedLong(userId);
-        var gid = Long.parseUnsignedLong(guildId);
-        synchronized(this) {
+        closeConnection(Long.parseUnsignedLong(userId), Long.parseUnsignedLong(guildId));
+    }
+    
+    @Override
+    public void closeConnection(long uid, long gid) {
+        synchronized(locks[stripe(gid)]) {
             var client = clients.get(uid);
             if(client == null) return;
             client.destroyConnection(gid);
-            if(client.getConnections().isEmpty()) {
-                client.close();
-                clients.remove(uid);
-            }
+            //atomic with connections being created by other stripes in getConnection
+            clients.computeIfPresent(uid, (__, c) -> {
+                if(!c.getConnections().isEmpty()) return c;
+                c.close();
+                return null;
+            });
         }
     }
     
+    /**
+     * Returns the connection for the given user and guild, creating it if needed. Must be
+     * called with the lock for the guild held.
+     */
     @Nonnull
     @CheckReturnValue
-    private MediaConnection getConnection(@Nonnull String userId, @Nonnull String guildId) {
-        var uid = Long.parseUnsignedLong(userId);
-        var gid = Long.parseUnsignedLong(guildId);
-        var client = clients.computeIfAbsent(uid, koe::newClient);
-        MediaConnection conn = client.getConnection(gid);
-        if(conn == null) {
-            conn = client.createConnection(gid);
-            conn.registerListener(new KoeEventAdapter() {
-                @Override
-                public void gatewayClosed(int code, String reason, boolean byRemote) {
-                    andesite.dispatcher().onWebSocketClosed(
-                            Long.toUnsignedString(uid),
-                            Long.toUnsignedString(gid),
-                            code,
-                            reason,
-                            byRemote
-                    );
-                }
-            });
+    private MediaConnection getConnection(long uid, long gid) {
+        //the client can't be closed while it has this connection, which is only destroyed
+        //with the lock held
+        var existing = clients.get(uid);
+        if(existing != null) {
+            var conn = existing.getConnection(gid);
+            if(conn != null) return conn;
         }
-        return conn;
+        var client = clients.compute(uid, (__, c) -> {
+            if(c == null) {
+                c = koe.newClient(uid);
+            }
+            if(c.getConnection(gid) == null) {
+                c.createConnection(gid).registerListener(new KoeEventAdapter() {
+                    @Override
+                    public void gatewayClosed(int code, String reason, boolean byRemote) {
+                        andesite.dispatcher().onWebSocketClosed(
+                                Long.toUnsignedString(uid),
+                                Long.toUnsignedString(gid),
+                                code,
+                                reason,
+                                byRemote
+                        );
+                    }
+                });
+            }
+            return c;
+        });
+        return client.getConnection(gid);
+    }
+    
+    private static int stripe(long guildId) {
+        //snowflake low bits are mostly sequence numbers, mix in the timestamp
+        var h = Long.hashCode(guildId) * 0x9E3779B9;
+        return h >>> (32 - Integer.numberOfTrailingZeros(STRIPES));
     }
 }
@@ -5,6 +5,7 @@ import andesite.send.AudioHandler;
 import andesite.send.AudioProvider;
 import andesite.send.magma.jdaa.JDASendFactory;
 import andesite.send.magma.nio.NioSendFactory;
+import andesite.send.magma.provider.AsyncPacketProviderFactory;
 import andesite.util.NativeUtils;
 import com.sedmelluq.discord.lavaplayer.jdaudp.NativeAudioSendFactory;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
@@ -110,21 +111,24 @@ public class MagmaHandler implements AudioHandler {
                 factory = new NativeAudioSendFactory(config.getInt("send-system.nas-buffer"));
             }
             case "jda" -> factory = new JDASendFactory();
-            case "nio" -> factory = new NioSendFactory(andesite.vertx());
+            case "nio" -> factory = new NioSendFactory(config.getInt("send-system.nio-threads"));
             default -> throw new IllegalArgumentException("No send system with type " + config.getString("send-system.type"));
         }
-//        if(config.getBoolean("send-system.async")) {
-//            factory = new AsyncPacketProviderFactory(factory);
-//        }
-        log.info("Send system: {}",
-                sendSystem
-//                config.getBoolean("send-system.async") ? "enabled" : "disabled"
+        var async = config.getBoolean("send-system.async");
+        if(async) {
+            factory = new AsyncPacketProviderFactory(factory, config.getInt("send-system.async-backlog"));
+        }
+        log.info("Send system: {}, async packet provider {}",
+                sendSystem,
+                async ? "enabled" : "disabled"
         );
         return factory;
     }
     
     private static class MagmaSendHandler implements AudioSendHandler {
         private final AudioProvider provider;
+        /* magma encrypts from the backing array of the frame, which pooled direct buffers don't have */
+        private ByteBuffer heapCopy;
     
         MagmaSendHandler(@Nonnull AudioProvider provider) {
             this.provider = provider;
@@ -138,7 +142,17 @@ public class MagmaHandler implements AudioHandler {
         @Nonnull
         @Override
         public ByteBuffer provide20MsAudio() {
-            return provider.provide();
+            var frame = provider.provide();
+            if(frame.hasArray()) {
+                return frame;
+            }
+            var copy = heapCopy;
+            if(copy == null || copy.capacity() < frame.remaining()) {
+                copy = heapCopy = ByteBuffer.allocate(frame.remaining());
+            }
+            copy.clear();
+            copy.put(frame.duplicate()).flip();
+            return copy;
         }
         
         @Override
@@ -0,0 +1,39 @@
+package andesite.send.magma.nio;
+
+import andesite.util.FramePacer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Thread sending the packets of many connections. All pacers wake on the same 20ms deadlines,
+ * first pulling one packet from every connection and then writing all of them in a burst.
+ */
+class NioPacer extends FramePacer<NioSendSystem> {
+    //after falling this many frames behind, skip to the current deadline instead of catching up
+    private static final int MAX_CATCH_UP = 3;
+    
+    private ByteBuffer[] packets = new ByteBuffer[16];
+    
+    NioPacer(int index, long origin) {
+        super("andesite-nio-pacer-" + index, new NioSendSystem[0], origin, MAX_CATCH_UP);
+    }
+    
+    @Override
+    protected void tick(NioSendSystem[] s, long deadline) {
+        if(packets.length < s.length) {
+            packets = new ByteBuffer[Math.max(s.length, packets.length * 2)];
+        }
+        var p = packets;
+        //pull everything first, so the writes aren't spread by the time taken to provide
+        for(var i = 0; i < s.length; i++) {
+            p[i] = s[i].poll();
+        }
+        for(var i = 0; i < s.length; i++) {
+            var packet = p[i];
+            if(packet != null) {
+                s[i].write(packet);
+                p[i] = null;
+            }
+        }
+    }
+}
@@ -1,19 +1,39 @@
 package andesite.send.magma.nio;
 
-import io.vertx.core.Vertx;
 import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
 import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
 import net.dv8tion.jda.api.audio.factory.IPacketProvider;
 
+/**
+ * Creates send systems driven by a fixed pool of pacer threads, instead of timers per connection.
+ */
 public class NioSendFactory implements IAudioSendFactory {
-    private final Vertx vertx;
+    private final NioPacer[] pacers;
     
-    public NioSendFactory(Vertx vertx) {
-        this.vertx = vertx;
+    public NioSendFactory(int threads) {
+        if(threads < 1) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        }
+        var origin = System.nanoTime();
+        this.pacers = new NioPacer[threads];
+        for(var i = 0; i < threads; i++) {
+            pacers[i] = new NioPacer(i, origin);
+            pacers[i].start();
+        }
     }
     
     @Override
     public IAudioSendSystem createSendSystem(IPacketProvider packetProvider) {
-        return new NioSendSystem(vertx, packetProvider);
+        return new NioSendSystem(leastLoaded(), packetProvider);
+    }
+    
+    private NioPacer leastLoaded() {
+        var best = pacers[0];
+        for(var p : pacers) {
+            if(p.size() < best.size()) {
+                best = p;
+            }
+        }
+        return best;
     }
 }
@@ -1,6 +1,5 @@
 package andesite.send.magma.nio;
 
-import io.vertx.core.Vertx;
 import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
 import net.dv8tion.jda.api.audio.factory.IPacketProvider;
 import org.slf4j.Logger;
@@ -8,22 +7,27 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 
+/**
+ * Send system using a connected {@link DatagramChannel}, driven by a {@link NioPacer} shared with
+ * other connections.
+ */
 public class NioSendSystem implements IAudioSendSystem {
     private static final Logger log = LoggerFactory.getLogger(NioSendSystem.class);
-    private static final int OPUS_FRAME_TIME_AMOUNT = 20;
     
-    private final Vertx vertx;
+    private final NioPacer pacer;
     private final IPacketProvider packetProvider;
     private final DatagramChannel channel;
     private volatile boolean started = false;
     private volatile boolean stop;
-    private long lastFrameSent;
+    /* only accessed by the pacer */
     private boolean sentPacket = true;
+    private boolean closed;
     
-    public NioSendSystem(Vertx vertx, IPacketProvider packetProvider) {
-        this.vertx = vertx;
+    NioSendSystem(NioPacer pacer, IPacketProvider packetProvider) {
+        this.pacer = pacer;
         this.packetProvider = packetProvider;
         try {
             this.channel = DatagramChannel.open()
@@ -43,10 +47,12 @@ public class NioSendSystem implements IAudioSendSystem {
         try {
             socket.close();
             channel.bind(local).connect(packetProvider.getSocketAddress());
+            //a full socket buffer drops the packet instead of stalling the pacer
+            channel.configureBlocking(false);
         } catch(IOException e) {
             throw new IllegalStateException("Unable to configure UDP channel", e);
         }
-        run();
+        pacer.add(this);
     }
     
     @Override
@@ -54,47 +60,35 @@ public class NioSendSystem implements IAudioSendSystem {
         stop = true;
     }
     
-    private void run() {
+    /**
+     * Returns the next packet to send, or null if there's nothing to send. Called by the pacer.
+     */
+    ByteBuffer poll() {
         if(stop) {
-            try {
-                channel.close();
-            } catch(IOException e) {
-                log.error("Error closing udp channel", e);
-            }
-            return;
+            close();
+            return null;
         }
-        lastFrameSent = System.currentTimeMillis();
-        var changeTalking = !sentPacket || (System.currentTimeMillis() - lastFrameSent) > OPUS_FRAME_TIME_AMOUNT;
-        var buffer = packetProvider.getNextPacketRaw(changeTalking);
-        
+        var buffer = packetProvider.getNextPacketRaw(!sentPacket);
         sentPacket = buffer != null;
-        if(sentPacket) {
-            try {
-                channel.send(buffer, packetProvider.getSocketAddress());
-            } catch(IOException e) {
-                log.error("Error sending udp packet", e);
-            }
-        }
-        scheduleNextPacket();
+        return buffer;
     }
     
-    private void scheduleNextPacket() {
-        var sleepTime = (OPUS_FRAME_TIME_AMOUNT) - (System.currentTimeMillis() - lastFrameSent);
-        if(sleepTime > 0) {
-            vertx.setTimer(sleepTime - 1, __ -> sendNextPacket());
-        } else {
-            sendNextPacket();
+    void write(ByteBuffer packet) {
+        try {
+            channel.write(packet);
+        } catch(IOException e) {
+            log.error("Error sending udp packet", e);
         }
     }
     
-    private void sendNextPacket() {
-        if(System.currentTimeMillis() < lastFrameSent + 60) {
-            // If the sending didn't took longer than 60ms (3 times the time frame)
-            lastFrameSent += OPUS_FRAME_TIME_AMOUNT;
-        } else {
-            // else reset lastFrameSent to current time
-            lastFrameSent = System.currentTimeMillis();
+    private void close() {
+        if(closed) return;
+        closed = true;
+        pacer.remove(this);
+        try {
+            channel.close();
+        } catch(IOException e) {
+            log.error("Error closing udp channel", e);
         }
-        run();
     }
 }
@@ -2,16 +2,13 @@ package andesite.send.magma.provider;
 
 import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
 
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicReference;
-
 class AsyncAudioSendSystemWrapper implements IAudioSendSystem {
     private final IAudioSendSystem wrapped;
-    private final AtomicReference<Future<?>> taskRef;
+    private final AsyncPacketProvider provider;
     
-    AsyncAudioSendSystemWrapper(IAudioSendSystem wrapped, AtomicReference<Future<?>> taskRef) {
+    AsyncAudioSendSystemWrapper(IAudioSendSystem wrapped, AsyncPacketProvider provider) {
         this.wrapped = wrapped;
-        this.taskRef = taskRef;
+        this.provider = provider;
     }
     
     @Override
@@ -21,10 +18,7 @@ class AsyncAudioSendSystemWrapper implements IAudioSendSystem {
     
     @Override
     public void shutdown() {
-        this.taskRef.updateAndGet(value -> {
-            value.cancel(true);
-            return null;
-        });
+        this.provider.close();
         this.wrapped.shutdown();
     }
 }
@@ -2,30 +2,55 @@ package andesite.send.magma.provider;
 
 import net.dv8tion.jda.api.audio.factory.IPacketProvider;
 import net.dv8tion.jda.api.audio.hooks.ConnectionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Prefetches packets on a worker pool, so jitter in providing them doesn't delay the send system.
+ *
+ * <br>The number of packets kept ahead adapts between {@link #MIN_BACKLOG} and the configured
+ * backlog: it grows whenever the send system drained everything before a fill ran, and shrinks
+ * again after a while without that happening, to keep the added latency low.
+ */
 class AsyncPacketProvider implements IPacketProvider {
-    private final AtomicBoolean talking = new AtomicBoolean();
+    private static final Logger log = LoggerFactory.getLogger(AsyncPacketProvider.class);
+    private static final int FRAME_MS = 20;
+    static final int MIN_BACKLOG = 3;
+    //fills without an underrun before the target shrinks, around 10 seconds at minimum backlog
+    private static final int SHRINK_AFTER_FILLS = 500;
+    
     private final IPacketProvider packetProvider;
-    private final BlockingQueue<ByteBuffer> queue;
+    private final PacketRing ring;
+    private final int maxBacklog;
+    private volatile boolean talking;
+    private volatile boolean closed;
+    private volatile Future<?> nextFill;
+    //fill thread only
+    private int target;
+    private int stableFills;
+    private boolean lastFillFull;
     
-    AsyncPacketProvider(IPacketProvider packetProvider, int backlog, AtomicReference<Future<?>> taskRef) {
+    AsyncPacketProvider(IPacketProvider packetProvider, int backlog) {
         this.packetProvider = packetProvider;
-        this.queue = new ArrayBlockingQueue<>(backlog);
-        
-        taskRef.updateAndGet(__ -> CommonAsync.WORKER_POOL.submit(new ProvideForkJoinTask(
-                () -> this.packetProvider.getNextPacketRaw(this.talking.get()),
-                this.queue
-        )));
+        this.maxBacklog = Math.max(backlog, MIN_BACKLOG);
+        this.ring = new PacketRing(maxBacklog);
+        this.target = MIN_BACKLOG;
+        this.nextFill = CommonAsync.WORKER_POOL.submit(this::fill);
+    }
+    
+    void close() {
+        closed = true;
+        var f = nextFill;
+        if(f != null) {
+            f.cancel(false);
+        }
     }
     
     @Override
@@ -50,8 +75,8 @@ class AsyncPacketProvider implements IPacketProvider {
     
     @Override
     public ByteBuffer getNextPacketRaw(boolean changeTalking) {
-        this.talking.set(changeTalking);
-        return this.queue.poll();
+        this.talking = changeTalking;
+        return ring.poll();
     }
     
     @Override
@@ -74,6 +99,43 @@ class AsyncPacketProvider implements IPacketProvider {
         packetProvider.onConnectionLost();
     }
     
+    private void fill() {
+        if(closed) return;
+        var full = true;
+        try {
+            var depth = ring.size();
+            if(depth == 0 && lastFillFull) {
+                //everything was sent before this fill ran
+                if(target < maxBacklog) {
+                    target++;
+                }
+                stableFills = 0;
+            } else if(++stableFills >= SHRINK_AFTER_FILLS) {
+                if(target > MIN_BACKLOG) {
+                    target--;
+                }
+                stableFills = 0;
+            }
+            while(depth < target) {
+                var packet = packetProvider.getNextPacketRaw(talking);
+                if(packet == null) {
+                    full = false;
+                    break;
+                }
+                if(!ring.offer(packet)) break;
+                depth++;
+            }
+        } catch(Throwable t) {
+            log.error("Error providing packet", t);
+            full = false;
+        }
+        lastFillFull = full;
+        if(closed) return;
+        //come back once half the target has been sent, or next frame if nothing was available
+        var delay = full ? Math.max(1, target / 2) * FRAME_MS : FRAME_MS;
+        nextFill = CommonAsync.WORKER_POOL.schedule(this::fill, delay, TimeUnit.MILLISECONDS);
+    }
+    
     private static DatagramPacket asDatagramPacket(final ByteBuffer buffer, final InetSocketAddress targetAddress) {
         final byte[] data = buffer.array();
         final int offset = buffer.arrayOffset();
@@ -4,13 +4,14 @@ import net.dv8tion.jda.api.audio.factory.IAudioSendFactory;
 import net.dv8tion.jda.api.audio.factory.IAudioSendSystem;
 import net.dv8tion.jda.api.audio.factory.IPacketProvider;
 
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicReference;
-
 public class AsyncPacketProviderFactory implements IAudioSendFactory {
     private final IAudioSendFactory factory;
     private final int backlog;
     
+    /**
+     * @param factory Factory for the send systems consuming the prefetched packets.
+     * @param backlog Maximum number of packets prefetched per connection.
+     */
     public AsyncPacketProviderFactory(IAudioSendFactory factory, int backlog) {
         this.factory = factory;
         this.backlog = backlog;
@@ -22,12 +23,10 @@ public class AsyncPacketProviderFactory implements IAudioSendFactory {
     
     @Override
     public IAudioSendSystem createSendSystem(IPacketProvider packetProvider) {
-        AtomicReference<Future<?>> taskRef = new AtomicReference<>();
-        
-        AsyncPacketProvider provider = new AsyncPacketProvider(packetProvider, backlog, taskRef);
+        var provider = new AsyncPacketProvider(packetProvider, backlog);
         return new AsyncAudioSendSystemWrapper(
                 this.factory.createSendSystem(provider),
-                taskRef
+                provider
         );
     }
 }
@@ -1,37 +1,28 @@
 package andesite.send.magma.provider;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinWorkerThread;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class CommonAsync {
     public static final int DEFAULT_BACKLOG = 20;
     
-    public static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
-        var thread = new Thread(r);
-        thread.setDaemon(true);
-        thread.setPriority((Thread.MIN_PRIORITY + Thread.NORM_PRIORITY) / 2);
-        thread.setName("async-packet-provider-scheduler");
-        return thread;
-    });
+    /**
+     * Runs and schedules the fills of every async provider. Fills never block, so each only
+     * occupies a thread while actually providing packets.
+     */
+    public static final ScheduledThreadPoolExecutor WORKER_POOL = createPool();
     
-    public static final ForkJoinPool WORKER_POOL = createPool();
-    
-    private static ForkJoinPool createPool() {
-        AtomicInteger threadNumber = new AtomicInteger();
-        return new ForkJoinPool(
-                Runtime.getRuntime().availableProcessors(),
-                pool -> {
-                    var thread = new ForkJoinWorkerThread(pool) {};
-                    thread.setDaemon(true);
-                    thread.setPriority((Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2);
-                    thread.setName("async-packet-provider-thread-" + (threadNumber.incrementAndGet()));
-                    return thread;
-                },
-                null,
-                true
-        );
+    private static ScheduledThreadPoolExecutor createPool() {
+        var threadNumber = new AtomicInteger();
+        var pool = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), r -> {
+            var thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setPriority((Thread.NORM_PRIORITY + Thread.MIN_PRIORITY) / 2);
+            thread.setName("async-packet-provider-thread-" + threadNumber.incrementAndGet());
+            return thread;
+        });
+        //closed connections shouldn't keep their next fill in the queue
+        pool.setRemoveOnCancelPolicy(true);
+        return pool;
     }
 }
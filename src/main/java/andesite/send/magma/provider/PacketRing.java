@@ -0,0 +1,76 @@
+package andesite.send.magma.provider;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single producer, single consumer ring of pooled packet buffers.
+ *
+ * <br>Packets are copied into buffers owned by the ring when offered, so no allocation happens
+ * after every slot has been used once. The buffer returned by {@link #poll()} stays valid until
+ * the next call to it, which is when the send system is done with it.
+ */
+class PacketRing {
+    private final ByteBuffer[] slots;
+    private final int mask;
+    /* slots taken by the consumer */
+    private final AtomicLong head = new AtomicLong();
+    /* slots published by the producer */
+    private final AtomicLong tail = new AtomicLong();
+    
+    PacketRing(int capacity) {
+        //at least one extra slot, which is never written while the consumer holds it
+        var size = Integer.highestOneBit(Math.max(capacity, 1)) << 1;
+        this.slots = new ByteBuffer[size];
+        this.mask = size - 1;
+    }
+    
+    /**
+     * Number of packets waiting to be polled. Called by the producer.
+     */
+    int size() {
+        return (int)(tail.get() - head.get());
+    }
+    
+    /**
+     * Copies a packet into the next free slot. Called by the producer.
+     *
+     * @return False if the ring is full.
+     */
+    boolean offer(ByteBuffer packet) {
+        var t = tail.get();
+        if(t - head.get() >= slots.length - 1) {
+            return false;
+        }
+        var index = (int)(t & mask);
+        var limit = packet.limit();
+        var slot = slots[index];
+        if(slot == null || slot.capacity() < limit) {
+            slot = slots[index] = ByteBuffer.allocate(Math.max(limit, 1024));
+        }
+        //keep the position and limit of the original, send systems differ in which they use
+        if(packet.hasArray()) {
+            System.arraycopy(packet.array(), packet.arrayOffset(), slot.array(), 0, limit);
+        } else {
+            slot.clear();
+            slot.put(packet.duplicate().position(0));
+        }
+        slot.limit(limit).position(packet.position());
+        tail.lazySet(t + 1);
+        return true;
+    }
+    
+    /**
+     * Returns the next packet, releasing the previously returned one. Called by the consumer.
+     *
+     * @return The next packet, or null if the ring is empty.
+     */
+    ByteBuffer poll() {
+        var h = head.get();
+        if(h == tail.get()) {
+            return null;
+        }
+        head.lazySet(h + 1);
+        return slots[(int)(h & mask)];
+    }
+}
@@ -0,0 +1,253 @@
+package andesite.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts between json payloads and their CBOR representation, used by binary websocket connections.
+ *
+ * <br>The payloads are the same as the json ones, except encoded tracks are sent as raw byte strings
+ * instead of base64 text. Only the fields given as {@link TrackFields} are converted, so other data
+ * that happens to use a {@code track} key is sent unchanged. Byte strings received from clients are
+ * converted back to base64, so the rest of the code never sees the difference.
+ */
+public class CborCodec {
+    private static final CBORFactory FACTORY = new CBORFactory();
+    
+    /**
+     * Encodes a payload as CBOR, without converting any tracks.
+     *
+     * @param payload Payload to encode.
+     *
+     * @return The encoded payload.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static Buffer encode(@Nonnull JsonObject payload) {
+        return encode(payload, TrackFields.NONE);
+    }
+    
+    /**
+     * Encodes a payload as CBOR.
+     *
+     * @param payload Payload to encode.
+     * @param tracks  Fields of the payload containing encoded tracks.
+     *
+     * @return The encoded payload.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static Buffer encode(@Nonnull JsonObject payload, @Nonnull TrackFields tracks) {
+        var out = new ByteArrayOutputStream(256);
+        try(var generator = FACTORY.createGenerator(out)) {
+            writeObject(generator, payload, tracks);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Buffer.buffer(out.toByteArray());
+    }
+    
+    /**
+     * Decodes a CBOR payload.
+     *
+     * @param data Data to decode. Must contain a single CBOR map.
+     *
+     * @return The decoded payload.
+     *
+     * @throws IOException If the data isn't a valid CBOR map.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public static JsonObject decode(@Nonnull Buffer data) throws IOException {
+        try(var parser = FACTORY.createParser(data.getBytes())) {
+            if(parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a map, got " + parser.currentToken());
+            }
+            return readObject(parser);
+        }
+    }
+    
+    private static void writeObject(JsonGenerator generator, JsonObject object, TrackFields tracks) throws IOException {
+        generator.writeStartObject();
+        for(var entry : object) {
+            generator.writeFieldName(entry.getKey());
+            var value = entry.getValue();
+            var field = tracks == null ? null : tracks.field(entry.getKey());
+            if(field != null && field.track && value instanceof String) {
+                writeTrack(generator, (String) value);
+            } else {
+                writeValue(generator, value, field);
+            }
+        }
+        generator.writeEndObject();
+    }
+    
+    private static void writeArray(JsonGenerator generator, JsonArray array, TrackFields tracks) throws IOException {
+        generator.writeStartArray();
+        var element = tracks == null ? null : tracks.element;
+        for(var value : array) {
+            writeValue(generator, value, element);
+        }
+        generator.writeEndArray();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void writeValue(JsonGenerator generator, Object value, TrackFields tracks) throws IOException {
+        if(value == null) {
+            generator.writeNull();
+        } else if(value instanceof JsonObject) {
+            writeObject(generator, (JsonObject) value, tracks);
+        } else if(value instanceof JsonArray) {
+            writeArray(generator, (JsonArray) value, tracks);
+        } else if(value instanceof Map) {
+            writeObject(generator, new JsonObject((Map<String, Object>) value), tracks);
+        } else if(value instanceof List) {
+            writeArray(generator, new JsonArray((List<Object>) value), tracks);
+        } else if(value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if(value instanceof Integer || value instanceof Long
+                          || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if(value instanceof Float || value instanceof Double) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if(value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if(value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if(value instanceof byte[]) {
+            generator.writeBinary((byte[]) value);
+        } else if(value instanceof Instant) {
+            generator.writeString(DateTimeFormatter.ISO_INSTANT.format((Instant) value));
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+    
+    private static void writeTrack(JsonGenerator generator, String track) throws IOException {
+        //tracks encoded by this node still have their raw form around
+        var bytes = RequestUtils.trackBytes(track);
+        if(bytes == null) {
+            try {
+                bytes = Base64.getDecoder().decode(track);
+            } catch(IllegalArgumentException e) {
+                //not an encoded track, send as is
+                generator.writeString(track);
+                return;
+            }
+        }
+        generator.writeBinary(bytes);
+    }
+    
+    private static JsonObject readObject(JsonParser parser) throws IOException {
+        var object = new JsonObject();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.getCurrentName();
+            object.put(name, readValue(parser, parser.nextToken()));
+        }
+        if(parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new IOException("Expected a field name or end of map, got " + parser.currentToken());
+        }
+        return object;
+    }
+    
+    private static JsonArray readArray(JsonParser parser) throws IOException {
+        var array = new JsonArray();
+        JsonToken token;
+        while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            array.add(readValue(parser, token));
+        }
+        return array;
+    }
+    
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        if(token == null) {
+            throw new IOException("Unexpected end of input");
+        }
+        return switch(token) {
+            case START_OBJECT -> readObject(parser);
+            case START_ARRAY -> readArray(parser);
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getNumberValue();
+            case VALUE_TRUE -> true;
+            case VALUE_FALSE -> false;
+            case VALUE_NULL -> null;
+            case VALUE_EMBEDDED_OBJECT -> Base64.getEncoder().encodeToString(parser.getBinaryValue());
+            default -> throw new IOException("Unexpected token " + token);
+        };
+    }
+    
+    /**
+     * Set of fields of a payload that contain encoded tracks.
+     */
+    public static class TrackFields {
+        /**
+         * No fields, every value is encoded as is.
+         */
+        public static final TrackFields NONE = new TrackFields();
+        
+        private final Map<String, TrackFields> children = new HashMap<>();
+        private TrackFields anyChild;
+        private TrackFields element;
+        private boolean track;
+        
+        private TrackFields() {}
+        
+        /**
+         * Creates a set of track fields from their paths. Paths are field names separated by dots,
+         * where {@code *} matches any field and a {@code []} suffix matches the elements of an array,
+         * eg {@code players[].mixer.*.track}.
+         *
+         * @param paths Paths of the track fields.
+         *
+         * @return The created set.
+         */
+        @Nonnull
+        @CheckReturnValue
+        public static TrackFields of(@Nonnull String... paths) {
+            var root = new TrackFields();
+            for(var path : paths) {
+                var node = root;
+                for(var part : path.split("\\.")) {
+                    var array = part.endsWith("[]");
+                    var name = array ? part.substring(0, part.length() - 2) : part;
+                    if(name.equals("*")) {
+                        if(node.anyChild == null) node.anyChild = new TrackFields();
+                        node = node.anyChild;
+                    } else {
+                        node = node.children.computeIfAbsent(name, __ -> new TrackFields());
+                    }
+                    if(array) {
+                        if(node.element == null) node.element = new TrackFields();
+                        node = node.element;
+                    }
+                }
+                node.track = true;
+            }
+            return root;
+        }
+        
+        private TrackFields field(String name) {
+            var child = children.get(name);
+            return child == null ? anyChild : child;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package andesite.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread running a tick over its members every 20ms, keeping a fixed schedule instead of
+ * sleeping a fixed amount between ticks.
+ *
+ * <br>Deadlines are multiples of 20ms from an origin, so pacers created with the same origin
+ * wake together. After falling more than {@code maxCatchUp} frames behind, the missed frames
+ * are skipped instead of being run back to back.
+ *
+ * @param <T> Type of the members.
+ */
+public abstract class FramePacer<T> extends Thread {
+    private static final Logger log = LoggerFactory.getLogger(FramePacer.class);
+    public static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    
+    private final long origin;
+    private final int maxCatchUp;
+    /* replaced on every change, so iteration doesn't need locking or allocation */
+    private volatile T[] members;
+    
+    protected FramePacer(@Nonnull String name, @Nonnull T[] empty, long origin, int maxCatchUp) {
+        super(name);
+        setDaemon(true);
+        setPriority(MAX_PRIORITY);
+        this.members = Arrays.copyOf(empty, 0);
+        this.origin = origin;
+        this.maxCatchUp = maxCatchUp;
+    }
+    
+    public synchronized void add(@Nonnull T member) {
+        var m = Arrays.copyOf(members, members.length + 1);
+        m[m.length - 1] = member;
+        members = m;
+    }
+    
+    public synchronized void remove(@Nonnull T member) {
+        var m = members;
+        for(var i = 0; i < m.length; i++) {
+            if(m[i] == member) {
+                var n = Arrays.copyOf(m, m.length - 1);
+                System.arraycopy(m, i + 1, n, i, m.length - i - 1);
+                members = n;
+                return;
+            }
+        }
+    }
+    
+    public int size() {
+        return members.length;
+    }
+    
+    @Override
+    public final void run() {
+        //align to the shared deadlines
+        var next = origin + ((System.nanoTime() - origin) / FRAME_NANOS + 1) * FRAME_NANOS;
+        started(next);
+        while(true) {
+            long remaining;
+            while((remaining = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            var behind = -remaining / FRAME_NANOS;
+            var m = members;
+            if(behind > maxCatchUp) {
+                skipped(m, behind);
+                next += behind * FRAME_NANOS;
+            }
+            try {
+                tick(m, next);
+            } catch(Throwable t) {
+                log.error("Error running frame on {}", getName(), t);
+            }
+            next += FRAME_NANOS;
+        }
+    }
+    
+    /**
+     * Called on the pacer thread before the first frame.
+     *
+     * @param deadline Deadline of the first frame.
+     */
+    protected void started(long deadline) {}
+    
+    /**
+     * Called when frames are skipped after falling too far behind.
+     *
+     * @param members Current members.
+     * @param frames  Number of skipped frames.
+     */
+    protected void skipped(@Nonnull T[] members, long frames) {}
+    
+    /**
+     * Runs one frame.
+     *
+     * @param members  Current members. Must not be modified.
+     * @param deadline Deadline of this frame, in {@link System#nanoTime()} units.
+     */
+    protected abstract void tick(@Nonnull T[] members, long deadline);
+}
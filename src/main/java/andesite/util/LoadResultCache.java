@@ -0,0 +1,177 @@
+package andesite.util;
+
+import com.typesafe.config.Config;
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of track load results, with a TTL per source and coalescing of
+ * concurrent loads for the same identifier.
+ *
+ * <br>Results are the json objects returned by
+ * {@link andesite.handler.AndesiteRequestHandler#resolveTracks(String) resolveTracks}.
+ * Failed loads are never cached, {@code NO_MATCHES} results are cached with their own TTL.
+ */
+public class LoadResultCache {
+    private final Map<String, CompletableFuture<JsonObject>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Long> sourceTtls = new HashMap<>();
+    private final Map<String, Entry> entries;
+    private final boolean enabled;
+    private final long defaultTtl;
+    private final long noMatchesTtl;
+    
+    public LoadResultCache(@Nonnull Config config) {
+        var maxSize = config.getInt("max-size");
+        this.enabled = config.getBoolean("enabled") && maxSize > 0;
+        this.defaultTtl = config.getDuration("ttl", TimeUnit.NANOSECONDS);
+        this.noMatchesTtl = config.getDuration("no-matches-ttl", TimeUnit.NANOSECONDS);
+        var sources = config.getConfig("source-ttl");
+        for(var e : sources.root().entrySet()) {
+            sourceTtls.put(e.getKey(), sources.getDuration(e.getKey(), TimeUnit.NANOSECONDS));
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * Returns the cached result for an identifier, or loads it with the provided function.
+     * If a load for the same identifier is already running, its result is shared instead
+     * of starting a new load.
+     *
+     * @param identifier Identifier to load, after {@code raw:}/{@code ytsearch:} resolution.
+     * @param loader     Function used to load the identifier on a cache miss.
+     *
+     * @return The load result. Each call receives its own copy.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public CompletionStage<JsonObject> load(@Nonnull String identifier,
+                                            @Nonnull Function<String, CompletionStage<JsonObject>> loader) {
+        if(!enabled) {
+            return loader.apply(identifier);
+        }
+        var key = normalize(identifier);
+        var cached = get(key);
+        if(cached != null) {
+            return CompletableFuture.completedFuture(cached.copy());
+        }
+        var created = new CompletableFuture<JsonObject>();
+        var existing = inFlight.putIfAbsent(key, created);
+        if(existing == null) {
+            loader.apply(identifier).whenComplete((json, error) -> {
+                if(error == null) {
+                    put(key, json);
+                }
+                inFlight.remove(key, created);
+                if(error != null) {
+                    created.completeExceptionally(error);
+                } else {
+                    created.complete(json);
+                }
+            });
+            existing = created;
+        }
+        return existing.thenApply(JsonObject::copy);
+    }
+    
+    /**
+     * Returns the number of results currently cached, including expired ones not yet evicted.
+     *
+     * @return The number of cached results.
+     */
+    @CheckReturnValue
+    public int size() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+    
+    @Nullable
+    private JsonObject get(@Nonnull String key) {
+        synchronized(entries) {
+            var e = entries.get(key);
+            if(e == null) return null;
+            if(System.nanoTime() - e.expiresAt > 0) {
+                entries.remove(key);
+                return null;
+            }
+            return e.value;
+        }
+    }
+    
+    private void put(@Nonnull String key, @Nonnull JsonObject value) {
+        var ttl = ttl(key, value);
+        if(ttl <= 0) return;
+        synchronized(entries) {
+            entries.put(key, new Entry(value, System.nanoTime() + ttl));
+        }
+    }
+    
+    private long ttl(@Nonnull String key, @Nonnull JsonObject value) {
+        if("NO_MATCHES".equals(value.getString("loadType"))) {
+            return noMatchesTtl;
+        }
+        var source = sourceOf(key);
+        if(source != null && sourceTtls.containsKey(source)) {
+            return sourceTtls.get(source);
+        }
+        return defaultTtl;
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    static String sourceOf(@Nonnull String key) {
+        if(key.startsWith("ytsearch:")) return "youtube";
+        if(key.startsWith("scsearch:")) return "soundcloud";
+        var lower = key.toLowerCase(Locale.ROOT);
+        if(lower.contains("youtube.com/") || lower.contains("youtu.be/")) return "youtube";
+        if(lower.contains("soundcloud.com/")) return "soundcloud";
+        if(lower.contains("bandcamp.com")) return "bandcamp";
+        if(lower.contains("twitch.tv/")) return "twitch";
+        if(lower.contains("vimeo.com/")) return "vimeo";
+        return null;
+    }
+    
+    /**
+     * Searches are case and whitespace insensitive, everything else (urls, raw identifiers)
+     * is only trimmed, since paths and ids may be case sensitive.
+     */
+    @Nonnull
+    @CheckReturnValue
+    static String normalize(@Nonnull String identifier) {
+        var id = identifier.strip();
+        for(var prefix : new String[] { "ytsearch:", "scsearch:" }) {
+            if(id.startsWith(prefix)) {
+                var query = id.substring(prefix.length()).strip().replaceAll("\\s+", " ");
+                return prefix + query.toLowerCase(Locale.ROOT);
+            }
+        }
+        return id;
+    }
+    
+    private static class Entry {
+        private final JsonObject value;
+        private final long expiresAt;
+        
+        private Entry(JsonObject value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
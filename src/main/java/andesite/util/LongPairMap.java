@@ -0,0 +1,309 @@
+package andesite.util;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread safe map keyed by pairs of longs, such as (user id, guild id), without boxing the keys.
+ *
+ * <br>Entries are spread across segments, each one an open addressing table with linear probing.
+ * Reads are lock free unless they race with a write to the same segment, writes lock only the
+ * segment they modify. Null values aren't supported.
+ *
+ * @param <V> Type of the values.
+ */
+public class LongPairMap<V> {
+    private static final int SEGMENT_COUNT = 64;
+    
+    private final Segment<V>[] segments;
+    
+    @SuppressWarnings("unchecked")
+    public LongPairMap() {
+        segments = (Segment<V>[]) new Segment[SEGMENT_COUNT];
+        for(var i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+    
+    @Nullable
+    @CheckReturnValue
+    public V get(long a, long b) {
+        var hash = hash(a, b);
+        return segment(hash).get(a, b, hash);
+    }
+    
+    /**
+     * Returns the value for the provided key, creating it if needed. Creation of values is
+     * serialized per segment, so the supplier is called at most once per missing key.
+     *
+     * @param a        First part of the key.
+     * @param b        Second part of the key.
+     * @param supplier Creates the value if it's missing. Must not return null.
+     *
+     * @return The existing or created value.
+     */
+    @Nonnull
+    public V computeIfAbsent(long a, long b, @Nonnull Supplier<? extends V> supplier) {
+        var hash = hash(a, b);
+        return segment(hash).computeIfAbsent(a, b, hash, supplier);
+    }
+    
+    /**
+     * Sets the value for the provided key, replacing any existing one. Readers see either the old
+     * or the new value, never a missing one.
+     *
+     * @param a     First part of the key.
+     * @param b     Second part of the key.
+     * @param value Value to store.
+     *
+     * @return The previous value, or null if there was none.
+     */
+    @Nullable
+    public V put(long a, long b, @Nonnull V value) {
+        if(value == null) {
+            throw new NullPointerException("value");
+        }
+        var hash = hash(a, b);
+        return segment(hash).put(a, b, hash, value);
+    }
+    
+    @Nullable
+    public V remove(long a, long b) {
+        var hash = hash(a, b);
+        return segment(hash).remove(a, b, hash, null);
+    }
+    
+    /**
+     * Removes the value for the provided key, only if it's the expected one.
+     *
+     * @param a        First part of the key.
+     * @param b        Second part of the key.
+     * @param expected Value to remove, compared by identity.
+     *
+     * @return Whether or not the value was removed.
+     */
+    public boolean remove(long a, long b, @Nonnull V expected) {
+        var hash = hash(a, b);
+        return segment(hash).remove(a, b, hash, expected) != null;
+    }
+    
+    @CheckReturnValue
+    public int size() {
+        var size = 0;
+        for(var s : segments) {
+            size += s.size;
+        }
+        return size;
+    }
+    
+    /**
+     * Calls the provided action for every value. Each segment is copied before calling the action,
+     * so it may modify this map.
+     *
+     * @param action Action to call.
+     */
+    public void forEach(@Nonnull Consumer<? super V> action) {
+        for(var s : segments) {
+            for(var value : s.snapshot()) {
+                action.accept(value);
+            }
+        }
+    }
+    
+    /**
+     * Returns a copy of all values currently in this map.
+     *
+     * @return A copy of the values.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public List<V> values() {
+        var list = new ArrayList<V>(size());
+        forEach(list::add);
+        return list;
+    }
+    
+    private Segment<V> segment(int hash) {
+        return segments[(hash >>> 26) & (SEGMENT_COUNT - 1)];
+    }
+    
+    private static int hash(long a, long b) {
+        var h = a * 0x9E3779B97F4A7C15L + b;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return (int) h;
+    }
+    
+    private static class Table {
+        private final long[] keys;
+        private final Object[] values;
+        
+        private Table(int capacity) {
+            this.keys = new long[capacity * 2];
+            this.values = new Object[capacity];
+        }
+        
+        private int find(long a, long b, int hash) {
+            var mask = values.length - 1;
+            for(int i = hash & mask, n = 0; n < values.length; i = (i + 1) & mask, n++) {
+                if(values[i] == null) return -1;
+                if(keys[i * 2] == a && keys[i * 2 + 1] == b) return i;
+            }
+            return -1;
+        }
+    }
+    
+    private static class Segment<V> {
+        private final StampedLock lock = new StampedLock();
+        private volatile Table table = new Table(16);
+        private volatile int size;
+        
+        @SuppressWarnings("unchecked")
+        V get(long a, long b, int hash) {
+            var stamp = lock.tryOptimisticRead();
+            if(stamp != 0) {
+                var t = table;
+                var i = t.find(a, b, hash);
+                var value = i < 0 ? null : t.values[i];
+                if(lock.validate(stamp)) {
+                    return (V) value;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                var t = table;
+                var i = t.find(a, b, hash);
+                return i < 0 ? null : (V) t.values[i];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        
+        //synchronized so values are only created once, reentrant so the supplier may use the map
+        synchronized V computeIfAbsent(long a, long b, int hash, Supplier<? extends V> supplier) {
+            var existing = get(a, b, hash);
+            if(existing != null) return existing;
+            var value = supplier.get();
+            if(value == null) {
+                throw new NullPointerException("Supplier returned null");
+            }
+            //the supplier may have inserted a value for this key
+            existing = get(a, b, hash);
+            if(existing != null) return existing;
+            var stamp = lock.writeLock();
+            try {
+                insert(a, b, hash, value);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            return value;
+        }
+        
+        //synchronized so it can't insert the same key as a concurrent computeIfAbsent
+        @SuppressWarnings("unchecked")
+        synchronized V put(long a, long b, int hash, Object value) {
+            var stamp = lock.writeLock();
+            try {
+                var t = table;
+                var i = t.find(a, b, hash);
+                if(i >= 0) {
+                    var old = (V) t.values[i];
+                    t.values[i] = value;
+                    return old;
+                }
+                insert(a, b, hash, value);
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        
+        //expected is null to remove any value
+        @SuppressWarnings("unchecked")
+        V remove(long a, long b, int hash, Object expected) {
+            var stamp = lock.writeLock();
+            try {
+                var t = table;
+                var i = t.find(a, b, hash);
+                if(i < 0) return null;
+                var value = (V) t.values[i];
+                if(expected != null && value != expected) return null;
+                delete(t, i);
+                size--;
+                return value;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        List<V> snapshot() {
+            if(size == 0) return List.of();
+            var stamp = lock.readLock();
+            try {
+                var values = table.values;
+                var list = new ArrayList<V>(size);
+                for(var v : values) {
+                    if(v != null) list.add((V) v);
+                }
+                return list;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        
+        private void insert(long a, long b, int hash, Object value) {
+            var t = table;
+            //keep the load factor at most 0.5
+            if((size + 1) * 2 > t.values.length) {
+                var resized = new Table(t.values.length * 2);
+                for(var i = 0; i < t.values.length; i++) {
+                    if(t.values[i] != null) {
+                        var ka = t.keys[i * 2];
+                        var kb = t.keys[i * 2 + 1];
+                        place(resized, ka, kb, hash(ka, kb), t.values[i]);
+                    }
+                }
+                table = t = resized;
+            }
+            place(t, a, b, hash, value);
+            size++;
+        }
+        
+        private void place(Table t, long a, long b, int hash, Object value) {
+            var mask = t.values.length - 1;
+            var i = hash & mask;
+            while(t.values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            t.keys[i * 2] = a;
+            t.keys[i * 2 + 1] = b;
+            t.values[i] = value;
+        }
+        
+        //backward shift deletion, keeps probe sequences valid without tombstones
+        private void delete(Table t, int i) {
+            var mask = t.values.length - 1;
+            var j = i;
+            while(true) {
+                j = (j + 1) & mask;
+                if(t.values[j] == null) break;
+                var home = hash(t.keys[j * 2], t.keys[j * 2 + 1]) & mask;
+                //move j to i if its home slot isn't cyclically in (i, j]
+                if(i <= j ? (i < home && home <= j) : (i < home || home <= j)) continue;
+                t.keys[i * 2] = t.keys[j * 2];
+                t.keys[i * 2 + 1] = t.keys[j * 2 + 1];
+                t.values[i] = t.values[j];
+                i = j;
+            }
+            t.values[i] = null;
+        }
+    }
+}
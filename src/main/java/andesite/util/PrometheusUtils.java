@@ -1,5 +1,6 @@
 package andesite.util;
 
+import andesite.Andesite;
 import andesite.NodeState;
 import andesite.event.AndesiteEventListener;
 import andesite.player.AndesitePlayer;
@@ -23,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 
 class PrometheusUtils {
@@ -55,6 +57,14 @@ class PrometheusUtils {
     
     static void configureMetrics(@Nonnull NodeState state) {
         CollectorRegistry.defaultRegistry.register(new UptimeCollector());
+        if(state instanceof Andesite) {
+            CollectorRegistry.defaultRegistry.register(new PipelineCollector((Andesite)state));
+            CollectorRegistry.defaultRegistry.register(new BufferPoolCollector((Andesite)state));
+            CollectorRegistry.defaultRegistry.register(new TrackLoadCollector((Andesite)state));
+            if(((Andesite)state).frameBufferBudget().enabled()) {
+                CollectorRegistry.defaultRegistry.register(new FrameBufferCollector((Andesite)state));
+            }
+        }
         
         var players = Gauge.build()
                 .namespace("andesite")
@@ -77,6 +87,138 @@ class PrometheusUtils {
         });
     }
     
+    private static class PipelineCollector extends Collector {
+        private final Gauge gauge = Gauge.build()
+                .namespace("andesite")
+                .name("players_pipeline")
+                .help("Number of players sending the source opus frames (passthrough) or transcoding audio")
+                .labelNames("pipeline")
+                .create();
+        private final Andesite andesite;
+        
+        PipelineCollector(Andesite andesite) {
+            this.andesite = andesite;
+        }
+        
+        @Override
+        public List<MetricFamilySamples> collect() {
+            var transcoding = new int[1];
+            var total = new int[1];
+            andesite.forEachPlayer(player -> {
+                total[0]++;
+                if(player.transcoding()) {
+                    transcoding[0]++;
+                }
+            });
+            gauge.labels("passthrough").set(total[0] - transcoding[0]);
+            gauge.labels("transcoding").set(transcoding[0]);
+            return gauge.collect();
+        }
+    }
+    
+    private static class TrackLoadCollector extends Collector {
+        private final Gauge active = Gauge.build()
+                .namespace("andesite")
+                .name("track_loads_active")
+                .help("Number of track loads running, per source")
+                .labelNames("source")
+                .create();
+        private final Gauge queued = Gauge.build()
+                .namespace("andesite")
+                .name("track_loads_queued")
+                .help("Number of track loads waiting for a free slot, per source")
+                .labelNames("source")
+                .create();
+        private final Andesite andesite;
+        
+        TrackLoadCollector(Andesite andesite) {
+            this.andesite = andesite;
+        }
+        
+        @Override
+        public List<MetricFamilySamples> collect() {
+            for(var source : andesite.trackLoadLimiter().sources()) {
+                active.labels(source.name()).set(source.active());
+                queued.labels(source.name()).set(source.queued());
+            }
+            var samples = new ArrayList<>(active.collect());
+            samples.addAll(queued.collect());
+            return samples;
+        }
+    }
+    
+    private static class BufferPoolCollector extends Collector {
+        private final Gauge reserved = Gauge.build()
+                .namespace("andesite")
+                .name("buffer_pool_reserved_bytes")
+                .help("Off heap memory allocated for player audio buffers")
+                .create();
+        private final Gauge leased = Gauge.build()
+                .namespace("andesite")
+                .name("buffer_pool_leased_bytes")
+                .help("Off heap memory of the audio buffers currently leased to players")
+                .create();
+        private final Gauge leasedBuffers = Gauge.build()
+                .namespace("andesite")
+                .name("buffer_pool_leased_buffers")
+                .help("Number of audio buffers currently leased to players")
+                .create();
+        private final Andesite andesite;
+        
+        BufferPoolCollector(Andesite andesite) {
+            this.andesite = andesite;
+        }
+        
+        @Override
+        public List<MetricFamilySamples> collect() {
+            var pool = andesite.bufferPool();
+            reserved.set(pool.reservedBytes());
+            leased.set(pool.leasedBytes());
+            leasedBuffers.set(pool.leasedBuffers());
+            var samples = new ArrayList<>(reserved.collect());
+            samples.addAll(leased.collect());
+            samples.addAll(leasedBuffers.collect());
+            return samples;
+        }
+    }
+    
+    private static class FrameBufferCollector extends Collector {
+        private final Gauge budget = Gauge.build()
+                .namespace("andesite")
+                .name("frame_buffer_budget_bytes")
+                .help("Memory budget for the frame buffers of all players")
+                .create();
+        private final Gauge used = Gauge.build()
+                .namespace("andesite")
+                .name("frame_buffer_bytes")
+                .help("Estimated memory used by the frame buffers of all players with a track")
+                .create();
+        private final Gauge perPlayer = Gauge.build()
+                .namespace("andesite")
+                .name("frame_buffer_player_bytes")
+                .help("Average estimated frame buffer memory per player with a track")
+                .create();
+        private final Andesite andesite;
+        
+        FrameBufferCollector(Andesite andesite) {
+            this.andesite = andesite;
+        }
+        
+        @Override
+        public List<MetricFamilySamples> collect() {
+            var b = andesite.frameBufferBudget();
+            var bytes = b.usedBytes();
+            var players = b.bufferingPlayers();
+            budget.set(b.budget());
+            used.set(bytes);
+            perPlayer.set(players == 0 ? 0 : (double)bytes / players);
+            var samples = new ArrayList<>(budget.collect());
+            samples.addAll(used.collect());
+            samples.addAll(perPlayer.collect());
+            return samples;
+        }
+    }
+    
     private static class UptimeCollector extends Collector {
         private final Gauge gauge = Gauge.build()
                 .namespace("andesite")
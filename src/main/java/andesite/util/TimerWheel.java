@@ -0,0 +1,178 @@
+package andesite.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel for periodic tasks that don't need precise timing, such as player updates.
+ *
+ * <br>A single vertx timer drives the wheel, visiting one bucket per tick, instead of registering
+ * one vertx timer per task. Tasks are placed in buckets based on when they were scheduled, so
+ * tasks with the same period registered at different times run on different ticks.
+ *
+ * <br>Tasks run on the context driving the wheel and must not block. Nodes create one wheel per
+ * event loop and spread tasks across them, so no single event loop runs every task.
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+    
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final List<Timeout> rescheduled = new ArrayList<>();
+    private final List<List<Timeout>> buckets;
+    private final Vertx vertx;
+    private final long tickMs;
+    private volatile long timerId = -1;
+    private volatile boolean closed;
+    private long tick;
+    
+    /**
+     * Creates a wheel driven by a timer on the provided context.
+     *
+     * @param context     Context the tasks run on.
+     * @param tickMs      Duration of a tick, in milliseconds.
+     * @param bucketCount Number of buckets, one visited per tick.
+     */
+    public TimerWheel(@Nonnull Context context, @Nonnegative long tickMs, @Nonnegative int bucketCount) {
+        if(tickMs < 1) {
+            throw new IllegalArgumentException("Tick < 1ms");
+        }
+        if(bucketCount < 1) {
+            throw new IllegalArgumentException("Bucket count < 1");
+        }
+        this.vertx = context.owner();
+        this.tickMs = tickMs;
+        this.buckets = new ArrayList<>(bucketCount);
+        for(var i = 0; i < bucketCount; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        //timers are bound to the context they're created on
+        context.runOnContext(__ -> {
+            if(closed) return;
+            timerId = vertx.setPeriodic(tickMs, ___ -> onTick());
+        });
+    }
+    
+    /**
+     * Schedules a task to run periodically, starting one period from now.
+     *
+     * @param period Period of the task.
+     * @param unit   Unit of the period.
+     * @param task   Task to run.
+     *
+     * @return A handle that can be used to cancel the task.
+     */
+    @Nonnull
+    public Timeout schedulePeriodic(@Nonnegative long period, @Nonnull TimeUnit unit, @Nonnull Runnable task) {
+        var ticks = Math.max(1, unit.toMillis(period) / tickMs);
+        var timeout = new Timeout(ticks, task);
+        pending.add(timeout);
+        return timeout;
+    }
+    
+    /**
+     * Returns the number of tasks currently scheduled.
+     *
+     * <br>Must be called from the event loop driving this wheel.
+     *
+     * @return The number of scheduled tasks.
+     */
+    @CheckReturnValue
+    public int size() {
+        var size = pending.size();
+        for(var bucket : buckets) {
+            size += bucket.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Stops the wheel. Scheduled tasks won't run anymore.
+     */
+    public void close() {
+        closed = true;
+        var id = timerId;
+        if(id != -1) {
+            vertx.cancelTimer(id);
+        }
+    }
+    
+    private void onTick() {
+        tick++;
+        Timeout t;
+        var bucket = buckets.get((int) (tick % buckets.size()));
+        var i = 0;
+        while(i < bucket.size()) {
+            t = bucket.get(i);
+            if(!t.cancelled && t.rounds > 0) {
+                t.rounds--;
+                i++;
+                continue;
+            }
+            //swap remove, order inside a bucket doesn't matter
+            var last = bucket.remove(bucket.size() - 1);
+            if(i < bucket.size()) {
+                bucket.set(i, last);
+            }
+            if(t.cancelled) {
+                continue;
+            }
+            try {
+                t.task.run();
+            } catch(Throwable e) {
+                log.error("Error running scheduled task", e);
+            }
+            if(!t.cancelled) {
+                rescheduled.add(t);
+            }
+        }
+        //placed after the current bucket was visited, so a task with a period of a full
+        //revolution doesn't run early/twice in the same tick
+        for(var r : rescheduled) {
+            place(r);
+        }
+        rescheduled.clear();
+        while((t = pending.poll()) != null) {
+            if(!t.cancelled) {
+                place(t);
+            }
+        }
+    }
+    
+    private void place(@Nonnull Timeout timeout) {
+        var n = buckets.size();
+        var deadline = tick + timeout.periodTicks;
+        timeout.rounds = (timeout.periodTicks - 1) / n;
+        buckets.get((int) (deadline % n)).add(timeout);
+    }
+    
+    public static class Timeout {
+        private final long periodTicks;
+        private final Runnable task;
+        private long rounds;
+        private volatile boolean cancelled;
+        
+        private Timeout(long periodTicks, Runnable task) {
+            this.periodTicks = periodTicks;
+            this.task = task;
+        }
+        
+        /**
+         * Cancels this task. It won't be executed again, and will be removed from the
+         * wheel the next time its bucket is visited.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package andesite.util;
+
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.typesafe.config.Config;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Limits how many track loads run at the same time for each source, queueing the rest.
+ *
+ * <br>Queued loads don't hold any thread, so a burst of searches waits here instead of tying up
+ * the lavaplayer item loader threads, and a slow source can't starve the others. Results are
+ * completed on a separate executor, so the work done by callers doesn't run on the loader threads.
+ * That executor uses virtual threads if the JVM supports them.
+ *
+ * <br>The source of a load is guessed from the identifier before it starts, since lavaplayer
+ * only picks the source manager while loading: searches by their prefix, and urls of the known
+ * sites by their host. Everything else, such as http and local files or sources added by
+ * plugins, shares the {@code other} limit.
+ */
+public class TrackLoadLimiter {
+    private static final Logger log = LoggerFactory.getLogger(TrackLoadLimiter.class);
+    private static final String OTHER_SOURCE = "other";
+    
+    private final Map<String, Source> sources = new ConcurrentHashMap<>();
+    private final Map<String, Integer> sourceLimits = new HashMap<>();
+    private final int defaultLimit;
+    private final int maxQueued;
+    private final Executor completionExecutor;
+    
+    public TrackLoadLimiter(@Nonnull Config config) {
+        //by default a single source can use all loader threads, like without the limiter
+        this.defaultLimit = Math.max(1, config.getIsNull("max-concurrent")
+                ? config.getInt("threads")
+                : config.getInt("max-concurrent"));
+        this.maxQueued = config.getInt("max-queued");
+        var limits = config.getConfig("source-max-concurrent");
+        for(var e : limits.root().entrySet()) {
+            sourceLimits.put(e.getKey(), Math.max(1, limits.getInt(e.getKey())));
+        }
+        this.completionExecutor = createCompletionExecutor(config.getBoolean("virtual-threads"));
+    }
+    
+    /**
+     * Loads an identifier once its source has a free slot.
+     *
+     * @param identifier Identifier to load.
+     * @param loader     Function that starts the load.
+     *
+     * @return The load result. Fails with a {@link FriendlyException} if too many loads are queued
+     * for the source.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public CompletionStage<JsonObject> load(@Nonnull String identifier,
+                                            @Nonnull Function<String, CompletionStage<JsonObject>> loader) {
+        var name = LoadResultCache.sourceOf(identifier);
+        var source = sources.computeIfAbsent(name == null ? OTHER_SOURCE : name, Source::new);
+        var result = new CompletableFuture<JsonObject>();
+        Runnable task = () -> {
+            CompletionStage<JsonObject> stage;
+            try {
+                stage = loader.apply(identifier);
+            } catch(Exception e) {
+                stage = CompletableFuture.failedFuture(e);
+            }
+            stage.whenComplete((json, error) -> {
+                source.release();
+                completionExecutor.execute(() -> {
+                    if(error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(json);
+                    }
+                });
+            });
+        };
+        if(!source.submit(task)) {
+            result.completeExceptionally(new FriendlyException("Too many track loads queued",
+                    FriendlyException.Severity.COMMON, null));
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the sources that had loads so far.
+     *
+     * @return The known sources.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Collection<Source> sources() {
+        return sources.values();
+    }
+    
+    @Nonnull
+    @CheckReturnValue
+    private static Executor createCompletionExecutor(boolean virtualThreads) {
+        if(virtualThreads) {
+            try {
+                var executor = (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                log.info("Completing track loads on virtual threads");
+                return executor;
+            } catch(NoSuchMethodException e) {
+                log.info("Virtual threads are not supported by this JVM, completing track loads on the common pool");
+            } catch(ReflectiveOperationException e) {
+                log.warn("Unable to create virtual thread executor, completing track loads on the common pool", e);
+            }
+        }
+        return ForkJoinPool.commonPool();
+    }
+    
+    public class Source {
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final String name;
+        private final int limit;
+        
+        private Source(String name) {
+            this.name = name;
+            this.limit = sourceLimits.getOrDefault(name, defaultLimit);
+        }
+        
+        @Nonnull
+        @CheckReturnValue
+        public String name() {
+            return name;
+        }
+        
+        /**
+         * Number of loads currently running for this source.
+         */
+        @CheckReturnValue
+        public int active() {
+            return active.get();
+        }
+        
+        /**
+         * Number of loads waiting for a free slot.
+         */
+        @CheckReturnValue
+        public int queued() {
+            return queued.get();
+        }
+        
+        private boolean submit(Runnable task) {
+            if(tryAcquire()) {
+                task.run();
+                return true;
+            }
+            if(queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                return false;
+            }
+            queue.add(task);
+            //a slot might have been released before the task was queued
+            drain();
+            return true;
+        }
+        
+        private void release() {
+            active.decrementAndGet();
+            drain();
+        }
+        
+        private void drain() {
+            while(!queue.isEmpty() && tryAcquire()) {
+                var task = queue.poll();
+                if(task == null) {
+                    active.decrementAndGet();
+                    continue;
+                }
+                queued.decrementAndGet();
+                task.run();
+            }
+        }
+        
+        private boolean tryAcquire() {
+            while(true) {
+                var current = active.get();
+                if(current >= limit) return false;
+                if(active.compareAndSet(current, current + 1)) return true;
+            }
+        }
+    }
+}